@@ -0,0 +1,12 @@
+import java.util.Map;
+
+public interface BaseBenchmark {
+    String getName();
+    Map<String, Object> getParams();
+    void setUp() throws Exception;
+    // one measured operation, the result is consumed by the runner so the work can't be optimized away
+    long operation() throws Exception;
+    // records, tokens, examples ... processed by one operation
+    int getUnitsPerOperation();
+    void tearDown() throws Exception;
+}
@@ -0,0 +1,72 @@
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Seq2SeqCustomDataSetIterator.next latency for a dictionary, batch and row size, optionally bucketed
+ * and in index mode.
+ */
+public class BatchBuildBenchmark implements BaseBenchmark {
+    private int dictSize;
+    private int batchSize;
+    private int rowSize;
+    private int bucketWidth;
+    private boolean indices;
+    private Seq2SeqCustomDataSetIterator iterator;
+
+    public BatchBuildBenchmark(int dictSize, int batchSize, int rowSize, int bucketWidth, boolean indices) {
+        this.dictSize = dictSize;
+        this.batchSize = batchSize;
+        this.rowSize = rowSize;
+        this.bucketWidth = bucketWidth;
+        this.indices = indices;
+    }
+
+    @Override
+    public String getName() {
+        return "batchBuild";
+    }
+
+    @Override
+    public Map<String, Object> getParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("dictSize", this.dictSize);
+        params.put("batchSize", this.batchSize);
+        params.put("rowSize", this.rowSize);
+        params.put("bucketWidth", this.bucketWidth);
+        params.put("indices", this.indices);
+        return params;
+    }
+
+    @Override
+    public void setUp() {
+        int rows = this.batchSize * 50;
+        this.iterator = new Seq2SeqCustomDataSetIterator(
+                SyntheticCorpus.tokens(rows, this.dictSize, this.rowSize - 1, 1),
+                SyntheticCorpus.tokens(rows, this.dictSize, this.rowSize - 1, 2),
+                this.batchSize,
+                Integer.MAX_VALUE,
+                this.dictSize,
+                this.rowSize);
+        if (this.bucketWidth > 0) this.iterator.setBucketing(this.bucketWidth, 0, 1);
+        this.iterator.setIndexMode(this.indices);
+    }
+
+    @Override
+    public long operation() {
+        if (!this.iterator.hasNext()) this.iterator.reset();
+        MultiDataSet batch = this.iterator.next();
+        return batch.getFeatures(0).size(0);
+    }
+
+    @Override
+    public int getUnitsPerOperation() {
+        return this.batchSize;
+    }
+
+    @Override
+    public void tearDown() {
+        this.iterator = null;
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs benchmarks in timed warmup and measurement iterations and exports the results as JSON.
+ *
+ *   BenchmarkRunner [--out results.json] [--filter name] [--warmup 3] [--iterations 5] [--time 1000]
+ *
+ * Results are throughput per iteration (mean and standard deviation) plus per-operation
+ * latency percentiles, one JSON object per benchmark and parameter set.
+ */
+public class BenchmarkRunner {
+    private int warmupIterations;
+    private int measurementIterations;
+    private long iterationMillis;
+
+    // consumed results, keeps the JIT from dropping the measured work
+    private volatile long sink;
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    public Result run(BaseBenchmark benchmark) throws Exception {
+        System.out.println("# " + benchmark.getName() + " " + benchmark.getParams());
+        benchmark.setUp();
+        try {
+            for (int i = 0; i < this.warmupIterations; i++) {
+                double throughput = iteration(benchmark, null);
+                System.out.printf("  warmup %d: %.3f ops/s%n", i + 1, throughput);
+            }
+            double[] throughputs = new double[this.measurementIterations];
+            LatencyRecorder latency = new LatencyRecorder(1 << 16);
+            for (int i = 0; i < this.measurementIterations; i++) {
+                throughputs[i] = iteration(benchmark, latency);
+                System.out.printf("  iteration %d: %.3f ops/s%n", i + 1, throughputs[i]);
+            }
+            return new Result(benchmark, throughputs, latency);
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    private double iteration(BaseBenchmark benchmark, LatencyRecorder latency) throws Exception {
+        long deadline = System.nanoTime() + this.iterationMillis * 1000000L;
+        long operations = 0;
+        long start = System.nanoTime();
+        long now = start;
+        long consumed = 0;
+        // always at least one operation, some of them take longer than an iteration
+        do {
+            long before = now;
+            consumed += benchmark.operation();
+            now = System.nanoTime();
+            if (latency != null) latency.record(now - before);
+            ++operations;
+        } while (now < deadline);
+        this.sink += consumed;
+        return operations / ((now - start) / 1e9);
+    }
+
+    public static class Result {
+        private String name;
+        private Map<String, Object> params;
+        private int unitsPerOperation;
+        private double mean;
+        private double error;
+        private double p50Millis;
+        private double p99Millis;
+        private double[] throughputs;
+
+        private Result(BaseBenchmark benchmark, double[] throughputs, LatencyRecorder latency) {
+            this.name = benchmark.getName();
+            this.params = benchmark.getParams();
+            this.unitsPerOperation = benchmark.getUnitsPerOperation();
+            this.throughputs = throughputs;
+            this.mean = Arrays.stream(throughputs).average().orElse(0);
+            double variance = Arrays.stream(throughputs).map(t -> (t - mean) * (t - mean)).sum()
+                    / Math.max(1, throughputs.length - 1);
+            this.error = Math.sqrt(variance);
+            this.p50Millis = latency.percentile(50) / 1e6;
+            this.p99Millis = latency.percentile(99) / 1e6;
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("  {\"benchmark\": \"").append(this.name).append("\", \"params\": {");
+            boolean first = true;
+            for (Map.Entry<String, Object> param : this.params.entrySet()) {
+                if (!first) json.append(", ");
+                first = false;
+                json.append('"').append(param.getKey()).append("\": ");
+                if (param.getValue() instanceof Number || param.getValue() instanceof Boolean) {
+                    json.append(param.getValue());
+                } else {
+                    json.append('"').append(param.getValue()).append('"');
+                }
+            }
+            json.append("}, \"opsPerSecond\": ").append(this.mean)
+                    .append(", \"opsPerSecondError\": ").append(this.error)
+                    .append(", \"unitsPerSecond\": ").append(this.mean * this.unitsPerOperation)
+                    .append(", \"p50Millis\": ").append(this.p50Millis)
+                    .append(", \"p99Millis\": ").append(this.p99Millis)
+                    .append(", \"iterations\": ").append(Arrays.toString(this.throughputs))
+                    .append("}");
+            return json.toString();
+        }
+    }
+
+    public static void writeJson(List<Result> results, File file) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, StandardCharsets.UTF_8.name())) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                out.print(results.get(i).toJson());
+                out.println(i + 1 < results.size() ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    public static List<BaseBenchmark> allBenchmarks() {
+        List<BaseBenchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new TextParserBenchmark("whitespace"));
+        if (new File("lib/ipadic").isDirectory()) {
+            benchmarks.add(new TextParserBenchmark("igo"));
+            benchmarks.add(new TextParserBenchmark("igo-cached"));
+        }
+        benchmarks.add(new Text2VecsBenchmark(10000));
+        for (int threads : new int[]{1, 4}) {
+            benchmarks.add(new ParserRunBenchmark(20000, threads));
+        }
+        for (int dictSize : new int[]{1000, 10000}) {
+            for (int batchSize : new int[]{50, 200}) {
+                for (int rowSize : new int[]{22, 64}) {
+                    benchmarks.add(new BatchBuildBenchmark(dictSize, batchSize, rowSize, 0, false));
+                }
+                benchmarks.add(new BatchBuildBenchmark(dictSize, batchSize, 22, 4, false));
+            }
+        }
+        for (int dictSize : new int[]{10000, 50000}) {
+            benchmarks.add(new BatchBuildBenchmark(dictSize, 200, 22, 0, true));
+        }
+        for (int batchSize : new int[]{32, 200}) {
+            benchmarks.add(new FitStepBenchmark(1000, batchSize, 22, Seq2SeqPrecision.FP32, false, 0));
+        }
+        for (Seq2SeqPrecision precision : new Seq2SeqPrecision[]{Seq2SeqPrecision.FP16, Seq2SeqPrecision.BF16}) {
+            if (precision.isSupported()) benchmarks.add(new FitStepBenchmark(1000, 200, 22, precision, false, 0));
+        }
+        // exact against sampled softmax where the output layer dominates
+        for (int negatives : new int[]{0, 512}) {
+            benchmarks.add(new FitStepBenchmark(50000, 32, 22, Seq2SeqPrecision.FP32, true, negatives));
+        }
+        for (int batchSize : new int[]{1, 32}) {
+            for (int beamWidth : new int[]{1, 5}) {
+                benchmarks.add(new DecodeBenchmark(1000, batchSize, beamWidth, 22, 0));
+            }
+        }
+        for (int shortlist : new int[]{0, 2000}) {
+            benchmarks.add(new DecodeBenchmark(50000, 32, 5, 22, shortlist));
+        }
+        return benchmarks;
+    }
+
+    public static void main(String... args) throws Exception {
+        File out = new File("benchmarks/results.json");
+        String filter = null;
+        int warmup = 3;
+        int iterations = 5;
+        long time = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--out": out = new File(args[i + 1]); break;
+                case "--filter": filter = args[i + 1]; break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--iterations": iterations = Integer.parseInt(args[i + 1]); break;
+                case "--time": time = Long.parseLong(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, time);
+        List<Result> results = new ArrayList<>();
+        for (BaseBenchmark benchmark : allBenchmarks()) {
+            if (filter != null && !benchmark.getName().contains(filter)) continue;
+            results.add(runner.run(benchmark));
+        }
+        writeJson(results, out);
+        System.out.println("Results written to " + out);
+    }
+}
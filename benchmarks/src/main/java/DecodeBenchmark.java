@@ -0,0 +1,84 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Seq2SeqInference decode latency for a batch of queries, greedy or with beam search,
+ * on a randomly initialized graph. Decoding always runs to maxLength or <eos>,
+ * so the numbers are an upper bound for a trained model of the same size.
+ * A shortlist > 0 restricts the output layer to the first shortlist token ids.
+ */
+public class DecodeBenchmark implements BaseBenchmark {
+    private int dictSize;
+    private int batchSize;
+    private int beamWidth;
+    private int maxLength;
+    private int shortlist;
+    private Seq2SeqInference inference;
+    private Seq2SeqDecodeOptions options;
+    private List<int[]> queries;
+
+    public DecodeBenchmark(int dictSize, int batchSize, int beamWidth, int maxLength, int shortlist) {
+        this.dictSize = dictSize;
+        this.batchSize = batchSize;
+        this.beamWidth = beamWidth;
+        this.maxLength = maxLength;
+        this.shortlist = shortlist;
+    }
+
+    @Override
+    public String getName() {
+        return "decode";
+    }
+
+    @Override
+    public Map<String, Object> getParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("dictSize", this.dictSize);
+        params.put("batchSize", this.batchSize);
+        params.put("beamWidth", this.beamWidth);
+        params.put("maxLength", this.maxLength);
+        params.put("shortlist", this.shortlist);
+        return params;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        Seq2SeqModel model = new Seq2SeqModel(null, this.dictSize, this.maxLength,
+                File.createTempFile("network", ".bin"), File.createTempFile("model", ".bin"));
+        model.initNetWork(false);
+        model.getNet().setListeners();
+        this.inference = new Seq2SeqInference(model.getNet(), null, null);
+        if (this.shortlist > 0) this.inference.setShortlist(IntStream.range(0, this.shortlist).toArray());
+        this.options = new Seq2SeqDecodeOptions(this.beamWidth, this.maxLength, 0.6);
+
+        Random random = new Random(1);
+        this.queries = new ArrayList<>(this.batchSize);
+        for (int i = 0; i < this.batchSize; i++) {
+            int[] query = new int[1 + random.nextInt(this.maxLength - 1)];
+            for (int t = 0; t < query.length; t++) {
+                query[t] = 3 + random.nextInt(this.dictSize - 3);
+            }
+            this.queries.add(query);
+        }
+    }
+
+    @Override
+    public long operation() {
+        return this.inference.decode(this.queries, this.options).size();
+    }
+
+    @Override
+    public int getUnitsPerOperation() {
+        return this.batchSize;
+    }
+
+    @Override
+    public void tearDown() {
+        this.inference = null;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decodes a batch of random queries on a randomly initialized graph, greedy and with beam search,
+ * and checks that every query gets one reply of at most maxLength tokens.
+ *
+ *   DecodeCheck [--dictSize 1000] [--queries 32] [--maxLength 22]
+ *
+ * Exits with status 1 and the failed checks on the first failure.
+ */
+public class DecodeCheck {
+    public static void main(String... args) throws Exception {
+        int dictSize = 1000;
+        int queryCount = 32;
+        int maxLength = 22;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--dictSize": dictSize = Integer.parseInt(args[i + 1]); break;
+                case "--queries": queryCount = Integer.parseInt(args[i + 1]); break;
+                case "--maxLength": maxLength = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Seq2SeqModel model = new Seq2SeqModel(null, dictSize, maxLength,
+                File.createTempFile("network", ".bin"), File.createTempFile("model", ".bin"));
+        model.initNetWork(false);
+        model.getNet().setListeners();
+        Seq2SeqInference inference = new Seq2SeqInference(model.getNet(), null, null);
+
+        Random random = new Random(1);
+        List<int[]> queries = new ArrayList<>(queryCount);
+        for (int i = 0; i < queryCount; i++) {
+            int[] query = new int[1 + random.nextInt(maxLength - 1)];
+            for (int t = 0; t < query.length; t++) {
+                query[t] = 3 + random.nextInt(dictSize - 3);
+            }
+            queries.add(query);
+        }
+
+        for (int beamWidth : new int[]{1, 5}) {
+            List<int[]> replies;
+            try {
+                replies = inference.decode(queries, new Seq2SeqDecodeOptions(beamWidth, maxLength, 0.6));
+            } catch (RuntimeException e) {
+                fail("beamWidth " + beamWidth + ": decoding " + queryCount + " queries threw " + e);
+                return;
+            }
+            if (replies.size() != queryCount)
+                fail("beamWidth " + beamWidth + ": " + replies.size() + " replies for " + queryCount + " queries");
+            for (int i = 0; i < replies.size(); i++) {
+                if (replies.get(i).length > maxLength)
+                    fail("beamWidth " + beamWidth + ": reply " + i + " has " + replies.get(i).length
+                            + " tokens, maxLength " + maxLength);
+            }
+            System.out.println("beamWidth " + beamWidth + ": " + queryCount + " replies OK");
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED " + message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,90 @@
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single ComputationGraph.fit step of the Seq2SeqModel graph on a fixed batch,
+ * or a Seq2SeqMixedPrecision step in reduced precision. In index mode, negatives > 0
+ * trains the output layer with a sampled softmax.
+ */
+public class FitStepBenchmark implements BaseBenchmark {
+    private int dictSize;
+    private int batchSize;
+    private int rowSize;
+    private Seq2SeqPrecision precision;
+    private boolean indexMode;
+    private int negatives;
+    private ComputationGraph net;
+    private Seq2SeqMixedPrecision mixedPrecision;
+    private MultiDataSet batch;
+
+    public FitStepBenchmark(int dictSize, int batchSize, int rowSize, Seq2SeqPrecision precision,
+                            boolean indexMode, int negatives) {
+        this.dictSize = dictSize;
+        this.batchSize = batchSize;
+        this.rowSize = rowSize;
+        this.precision = precision;
+        this.indexMode = indexMode;
+        this.negatives = negatives;
+    }
+
+    @Override
+    public String getName() {
+        return "fitStep";
+    }
+
+    @Override
+    public Map<String, Object> getParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("dictSize", this.dictSize);
+        params.put("batchSize", this.batchSize);
+        params.put("rowSize", this.rowSize);
+        params.put("precision", this.precision.toString());
+        params.put("indexMode", this.indexMode);
+        params.put("negatives", this.negatives);
+        return params;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        Seq2SeqCustomDataSetIterator iterator = new Seq2SeqCustomDataSetIterator(
+                SyntheticCorpus.tokens(this.batchSize, this.dictSize, this.rowSize - 1, 1),
+                SyntheticCorpus.tokens(this.batchSize, this.dictSize, this.rowSize - 1, 2),
+                this.batchSize,
+                1,
+                this.dictSize,
+                this.rowSize);
+        Seq2SeqModel model = new Seq2SeqModel(iterator, this.dictSize, this.rowSize,
+                File.createTempFile("network", ".bin"), File.createTempFile("model", ".bin"));
+        model.setIndexMode(this.indexMode);
+        model.setSampledSoftmax(this.negatives);
+        iterator.setPrecision(this.precision);
+        this.batch = iterator.next();
+        model.initNetWork(false);
+        this.net = model.getNet();
+        this.net.setListeners();
+        if (this.precision.isReduced()) this.mixedPrecision = new Seq2SeqMixedPrecision(this.net, this.precision);
+    }
+
+    @Override
+    public long operation() {
+        if (this.mixedPrecision != null) this.mixedPrecision.step(this.batch);
+        else this.net.fit(this.batch);
+        return this.net.getIterationCount();
+    }
+
+    @Override
+    public int getUnitsPerOperation() {
+        return this.batchSize;
+    }
+
+    @Override
+    public void tearDown() {
+        this.net = null;
+        this.mixedPrecision = null;
+        this.batch = null;
+    }
+}
@@ -0,0 +1,58 @@
+import org.datavec.api.records.reader.impl.csv.CSVLineSequenceRecordReader;
+import org.datavec.api.split.FileSplit;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SimpleWordSequenceSequenceCSVParser.run over a synthetic corpus, one operation parses the whole corpus.
+ */
+public class ParserRunBenchmark implements BaseBenchmark {
+    private int pairs;
+    private int threads;
+    private File corpus;
+
+    public ParserRunBenchmark(int pairs, int threads) {
+        this.pairs = pairs;
+        this.threads = threads;
+    }
+
+    @Override
+    public String getName() {
+        return "parserRun";
+    }
+
+    @Override
+    public Map<String, Object> getParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("pairs", this.pairs);
+        params.put("threads", this.threads);
+        return params;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        this.corpus = SyntheticCorpus.writeCsv(File.createTempFile("corpus", ".csv"), this.pairs, 5000, 20, 1);
+    }
+
+    @Override
+    public long operation() throws Exception {
+        BaseWordSequenceParser sequenceParser = new SimpleWordSequenceSequenceCSVParser(
+                new CSVLineSequenceRecordReader(0, ','),
+                new WhitespaceTextParser(),
+                new FileSplit(this.corpus));
+        sequenceParser.run(0, 1, this.threads);
+        return sequenceParser.getDictSize();
+    }
+
+    @Override
+    public int getUnitsPerOperation() {
+        return this.pairs;
+    }
+
+    @Override
+    public void tearDown() {
+        this.corpus.delete();
+    }
+}
@@ -0,0 +1,92 @@
+import org.bytedeco.javacpp.Pointer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trains the Seq2SeqModel graph from the same initialization in every supported precision on a synthetic
+ * copy task (labels equal to the features, so the loss keeps falling) and compares them.
+ *
+ *   PrecisionReport [--steps 200] [--dictSize 1000] [--batchSize 32] [--out benchmarks/precision.csv]
+ *
+ * prints throughput, parameter memory and peak off-heap memory per precision, and writes the loss of
+ * every step as precision,step,loss lines.
+ */
+public class PrecisionReport {
+    public static void main(String... args) throws Exception {
+        int steps = 200;
+        int dictSize = 1000;
+        int batchSize = 32;
+        int rowSize = 22;
+        File out = new File("benchmarks/precision.csv");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--steps": steps = Integer.parseInt(args[i + 1]); break;
+                case "--dictSize": dictSize = Integer.parseInt(args[i + 1]); break;
+                case "--batchSize": batchSize = Integer.parseInt(args[i + 1]); break;
+                case "--out": out = new File(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<String> summaries = new ArrayList<>();
+        try (PrintStream csv = new PrintStream(out)) {
+            csv.println("precision,step,loss");
+            for (Seq2SeqPrecision precision : Seq2SeqPrecision.values()) {
+                if (!precision.isSupported()) {
+                    summaries.add(precision + ": not supported by the backend");
+                    continue;
+                }
+                System.gc();
+                Seq2SeqCustomDataSetIterator iterator = new Seq2SeqCustomDataSetIterator(
+                        SyntheticCorpus.tokens(batchSize * 50, dictSize, rowSize - 1, 1),
+                        SyntheticCorpus.tokens(batchSize * 50, dictSize, rowSize - 1, 1),
+                        batchSize,
+                        1,
+                        dictSize,
+                        rowSize);
+                iterator.setPrecision(precision);
+                Seq2SeqModel model = new Seq2SeqModel(iterator, dictSize, rowSize,
+                        File.createTempFile("network", ".bin"), File.createTempFile("model", ".bin"));
+                model.initNetWork(false);
+                ComputationGraph net = model.getNet();
+                net.setListeners();
+                Seq2SeqMixedPrecision mixedPrecision = precision.isReduced()
+                        ? new Seq2SeqMixedPrecision(net, precision)
+                        : null;
+
+                long peakBytes = Pointer.totalBytes();
+                long examples = 0;
+                double loss = Double.NaN;
+                long start = System.nanoTime();
+                for (int step = 0; step < steps; step++) {
+                    if (iterator.getCurrentBatch() == iterator.getTotalBatches()) iterator.reset();
+                    MultiDataSet batch = iterator.next();
+                    if (mixedPrecision != null) {
+                        loss = mixedPrecision.step(batch);
+                    } else {
+                        net.fit(batch);
+                        loss = net.score();
+                    }
+                    examples += batch.getFeatures(0).size(0);
+                    peakBytes = Math.max(peakBytes, Pointer.totalBytes());
+                    csv.println(precision + "," + step + "," + loss);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                // FP32 master weights, plus the working copy in reduced precision
+                long paramBytes = net.numParams() * Nd4j.sizeOfDataType(net.params().dataType());
+                if (precision.isReduced()) paramBytes += net.numParams() * Nd4j.sizeOfDataType(precision.getDataType());
+                summaries.add(String.format("%s: %.1f examples/s, params %.1f MiB, peak off-heap %.1f MiB, final loss %.4f",
+                        precision, examples / seconds, paramBytes / 1048576.0, peakBytes / 1048576.0, loss));
+            }
+        }
+        summaries.forEach(System.out::println);
+        System.out.println("Loss curves written to " + out);
+    }
+}
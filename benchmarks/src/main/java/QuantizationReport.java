@@ -0,0 +1,117 @@
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the int8 export of a model with the float model it came from.
+ *
+ *   QuantizationReport [--model resources/model.bin] [--queries 200] [--maxLength 22] [--dictSize 1000]
+ *
+ * Without a model file, a randomly initialized Seq2SeqModel graph of dictSize words is used.
+ * Prints the file sizes, the relative error of the thought vectors, how often greedy replies agree
+ * and their BLEU against the float replies, and the mean greedy decode latency of a single query.
+ */
+public class QuantizationReport {
+    public static void main(String... args) throws Exception {
+        File modelFile = new File("resources/model.bin");
+        int queryCount = 200;
+        int maxLength = 22;
+        int dictSize = 1000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--model": modelFile = new File(args[i + 1]); break;
+                case "--queries": queryCount = Integer.parseInt(args[i + 1]); break;
+                case "--maxLength": maxLength = Integer.parseInt(args[i + 1]); break;
+                case "--dictSize": dictSize = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ComputationGraph net;
+        if (modelFile.exists()) {
+            net = ModelSerializer.restoreComputationGraph(modelFile, false);
+        } else {
+            System.out.println(modelFile + " not found, using a random model of " + dictSize + " words");
+            modelFile = File.createTempFile("model", ".bin");
+            Seq2SeqModel model = new Seq2SeqModel(null, dictSize, maxLength,
+                    File.createTempFile("network", ".bin"), modelFile);
+            model.initNetWork(false);
+            net = model.getNet();
+            ModelSerializer.writeModel(net, modelFile, true);
+        }
+        net.setListeners();
+        File withoutUpdater = File.createTempFile("model-no-updater", ".bin");
+        ModelSerializer.writeModel(net, withoutUpdater, false);
+        File quantizedFile = File.createTempFile("model-int8", ".bin");
+        Seq2SeqQuantizedModel.export(net, 0L, quantizedFile);
+
+        Seq2SeqInference inference = new Seq2SeqInference(net, null, null);
+        Seq2SeqQuantizedModel quantized = Seq2SeqQuantizedModel.load(quantizedFile);
+        int size = quantized.getDictSize();
+        Random random = new Random(1);
+        List<int[]> queries = new ArrayList<>(queryCount);
+        for (int i = 0; i < queryCount; i++) {
+            int[] query = new int[1 + random.nextInt(maxLength - 1)];
+            for (int t = 0; t < query.length; t++) {
+                query[t] = 3 + random.nextInt(size - 3);
+            }
+            queries.add(query);
+        }
+
+        // drift
+        double thoughtError = 0;
+        INDArray thoughts = inference.encode(queries);
+        for (int i = 0; i < queryCount; i++) {
+            float[] expected = thoughts.getRow(i).dup().data().asFloat();
+            float[] actual = quantized.encode(queries.get(i));
+            double error = 0;
+            double norm = 0;
+            for (int j = 0; j < expected.length; j++) {
+                error += (expected[j] - actual[j]) * (expected[j] - actual[j]);
+                norm += expected[j] * expected[j];
+            }
+            thoughtError += Math.sqrt(error / Math.max(norm, 1e-12));
+        }
+        Seq2SeqDecodeOptions options = Seq2SeqDecodeOptions.greedy(maxLength);
+        List<int[]> floatReplies = inference.decode(queries, options);
+        List<int[]> quantizedReplies = quantized.decode(queries, options);
+        int identical = 0;
+        for (int i = 0; i < queryCount; i++) {
+            if (Arrays.equals(floatReplies.get(i), quantizedReplies.get(i))) ++identical;
+        }
+
+        // latency, single queries after a warmup pass
+        for (int[] query : queries) {
+            inference.decode(Collections.singletonList(query), options);
+            quantized.decode(query, maxLength);
+        }
+        long start = System.nanoTime();
+        for (int[] query : queries) {
+            inference.decode(Collections.singletonList(query), options);
+        }
+        double floatMillis = (System.nanoTime() - start) / 1e6 / queryCount;
+        start = System.nanoTime();
+        for (int[] query : queries) {
+            quantized.decode(query, maxLength);
+        }
+        double quantizedMillis = (System.nanoTime() - start) / 1e6 / queryCount;
+
+        System.out.println(String.format("Size: float %.1f MiB (%.1f MiB without updater), int8 %.1f MiB, %.1fx smaller",
+                modelFile.length() / 1048576.0, withoutUpdater.length() / 1048576.0, quantizedFile.length() / 1048576.0,
+                (double) withoutUpdater.length() / quantizedFile.length()));
+        System.out.println(String.format("Drift: thought vector relative error %.4f, identical replies %.1f%%, BLEU %.4f",
+                thoughtError / queryCount, 100.0 * identical / queryCount,
+                Seq2SeqEvaluator.bleu(quantizedReplies, floatReplies)));
+        System.out.println(String.format("Latency: float %.2f ms, int8 %.2f ms per query, %.2fx",
+                floatMillis, quantizedMillis, floatMillis / quantizedMillis));
+        withoutUpdater.delete();
+        quantizedFile.delete();
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible random corpora for the benchmarks. Word frequencies follow a log-uniform
+ * (Zipf-like) distribution, words are made of kana so igo can tokenize them too.
+ */
+public class SyntheticCorpus {
+    private static final String SYLLABLES =
+            "あいうえおかきくけこさしすせそたちつてとなにぬねのはひふへほまみむめもやゆよらりるれろわをん";
+
+    public static List<String> sentences(int count, int vocabulary, int maxLength, String separator, long seed) {
+        Random random = new Random(seed);
+        List<String> sentences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(maxLength);
+            StringBuilder sentence = new StringBuilder();
+            for (int w = 0; w < length; w++) {
+                if (w > 0) sentence.append(separator);
+                sentence.append(word(zipf(random, vocabulary)));
+            }
+            sentences.add(sentence.toString());
+        }
+        return sentences;
+    }
+
+    // feature,label pairs in the layout SimpleWordSequenceSequenceCSVParser reads
+    public static File writeCsv(File file, int pairs, int vocabulary, int maxLength, long seed) throws FileNotFoundException {
+        List<String> features = sentences(pairs, vocabulary, maxLength, " ", seed);
+        List<String> labels = sentences(pairs, vocabulary, maxLength, " ", seed + 1);
+        try (PrintStream out = new PrintStream(file)) {
+            for (int i = 0; i < pairs; i++) {
+                out.println(features.get(i) + "," + labels.get(i));
+            }
+        }
+        return file;
+    }
+
+    // token ids in [3, dictSize), ids 0..2 are <unk>, <eos> and <go>
+    public static BaseTokenCorpus tokens(int rows, int dictSize, int maxLength, long seed) {
+        Random random = new Random(seed);
+        List<List<Double>> list = new ArrayList<>(rows);
+        for (int r = 0; r < rows; r++) {
+            int length = 1 + random.nextInt(maxLength);
+            List<Double> row = new ArrayList<>(length);
+            for (int t = 0; t < length; t++) {
+                row.add((double) (3 + zipf(random, dictSize - 3)));
+            }
+            list.add(row);
+        }
+        return new ListTokenCorpus(list);
+    }
+
+    private static int zipf(Random random, int vocabulary) {
+        return (int) Math.min(vocabulary - 1, Math.floor(Math.pow(vocabulary + 1, random.nextDouble())) - 1);
+    }
+
+    private static String word(int id) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append(SYLLABLES.charAt(id % SYLLABLES.length()));
+            id /= SYLLABLES.length();
+        } while (id > 0);
+        return word.toString();
+    }
+}
@@ -0,0 +1,64 @@
+import org.datavec.api.records.reader.impl.csv.CSVLineSequenceRecordReader;
+import org.datavec.api.split.FileSplit;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BaseWordSequenceParser.text2vecs throughput with a dictionary built from a synthetic corpus.
+ */
+public class Text2VecsBenchmark implements BaseBenchmark {
+    private int pairs;
+    private File corpus;
+    private BaseWordSequenceParser sequenceParser;
+    private List<String> sentences;
+    private int next;
+
+    public Text2VecsBenchmark(int pairs) {
+        this.pairs = pairs;
+    }
+
+    @Override
+    public String getName() {
+        return "text2vecs";
+    }
+
+    @Override
+    public Map<String, Object> getParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("pairs", this.pairs);
+        return params;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        this.corpus = SyntheticCorpus.writeCsv(File.createTempFile("corpus", ".csv"), this.pairs, 5000, 20, 1);
+        this.sequenceParser = new SimpleWordSequenceSequenceCSVParser(
+                new CSVLineSequenceRecordReader(0, ','),
+                new WhitespaceTextParser(),
+                new FileSplit(this.corpus));
+        this.sequenceParser.run(0, 1);
+        // includes words the dictionary has never seen
+        this.sentences = SyntheticCorpus.sentences(1000, 8000, 20, " ", 2);
+        this.next = 0;
+    }
+
+    @Override
+    public long operation() {
+        String sentence = this.sentences.get(this.next);
+        this.next = (this.next + 1) % this.sentences.size();
+        return this.sequenceParser.text2vecs(sentence, "<unk>").size();
+    }
+
+    @Override
+    public int getUnitsPerOperation() {
+        return 1;
+    }
+
+    @Override
+    public void tearDown() {
+        this.corpus.delete();
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BaseTextParser.parse throughput over synthetic sentences.
+ * parser: whitespace, igo (uncached PooledJapaneseTextParser) or igo-cached.
+ */
+public class TextParserBenchmark implements BaseBenchmark {
+    private String parserName;
+    private BaseTextParser parser;
+    private List<String> sentences;
+    private int next;
+
+    public TextParserBenchmark(String parserName) {
+        this.parserName = parserName;
+    }
+
+    @Override
+    public String getName() {
+        return "parse";
+    }
+
+    @Override
+    public Map<String, Object> getParams() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("parser", this.parserName);
+        return params;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        switch (this.parserName) {
+            case "whitespace":
+                this.parser = new WhitespaceTextParser();
+                this.sentences = SyntheticCorpus.sentences(10000, 5000, 20, " ", 1);
+                break;
+            case "igo":
+                this.parser = new PooledJapaneseTextParser("lib/ipadic", 0, 0);
+                this.sentences = SyntheticCorpus.sentences(10000, 5000, 20, "", 1);
+                break;
+            case "igo-cached":
+                this.parser = new PooledJapaneseTextParser("lib/ipadic", 100000, 8L << 20);
+                // few distinct utterances, like chat traffic
+                this.sentences = SyntheticCorpus.sentences(500, 5000, 20, "", 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown parser " + this.parserName);
+        }
+        this.next = 0;
+    }
+
+    @Override
+    public long operation() {
+        String sentence = this.sentences.get(this.next);
+        this.next = (this.next + 1) % this.sentences.size();
+        return this.parser.parse(sentence).size();
+    }
+
+    @Override
+    public int getUnitsPerOperation() {
+        return 1;
+    }
+
+    @Override
+    public void tearDown() {
+        this.parser = null;
+    }
+}
@@ -0,0 +1,9 @@
+import java.util.Arrays;
+import java.util.List;
+
+public class WhitespaceTextParser implements BaseTextParser {
+    @Override
+    public List<String> parse(String text) {
+        return Arrays.asList(text.trim().split(" +"));
+    }
+}
@@ -0,0 +1,8 @@
+public interface BaseTokenCorpus {
+    // number of sequences in the corpus
+    int size();
+    // number of tokens in the sequence at row
+    int length(int row);
+    // token id at (row, position)
+    int get(int row, int position);
+}
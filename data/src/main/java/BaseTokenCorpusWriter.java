@@ -0,0 +1,12 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface BaseTokenCorpusWriter extends Closeable {
+    void append(int[] ids, int length) throws IOException;
+    int getRows();
+
+    /**
+     * Makes the written rows visible to readers, close without commit discards them.
+     */
+    void commit() throws IOException;
+}
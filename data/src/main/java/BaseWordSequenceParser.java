@@ -10,11 +10,20 @@ public interface BaseWordSequenceParser {
 
     void setInputFile(FileSplit file) throws IOException, InterruptedException;
     void run(int featureIndex, int labelIndex);
+    void run(int featureIndex, int labelIndex, int threads) throws InterruptedException;
     void save(File featureFile, File labelFile) throws FileNotFoundException;
+    void saveBinary(File featureFile, File labelFile) throws IOException;
     void runAndSave(int featureIndex, int labelIndex, File featureFile, File labelFile) throws FileNotFoundException;
+    void runAndSaveStreaming(int featureIndex, int labelIndex, int threads, File featureFile, File labelFile) throws IOException, InterruptedException;
+    void runAndSaveSharded(int featureIndex, int labelIndex, int threads, File directory, int rowsPerShard) throws IOException, InterruptedException;
+    void buildAndSave(int featureIndex, int labelIndex, int threads, File featureFile, File labelFile, File vocabularyFile, File manifestFile) throws IOException, InterruptedException;
+    void appendAndSave(int featureIndex, int labelIndex, int threads, File featureFile, File labelFile, File vocabularyFile, File manifestFile) throws IOException, InterruptedException;
+    void appendAndSaveSharded(int featureIndex, int labelIndex, int threads, File directory, int rowsPerShard, File vocabularyFile, File manifestFile) throws IOException, InterruptedException;
     Map<String, Integer> getwordIdDict();
     Map<Integer, String> getIdWordDict();
     void setwordIdDict(Map<String, Integer> wordIdDict, Map<Integer, String> idWordDict);
+    void saveVocabulary(File vocabularyFile) throws IOException;
+    void loadVocabulary(File vocabularyFile) throws IOException;
     int getFeatureMaxLength ();
     void setFeatureMaxLength (int featureMaxLength);
     int getLabelSize ();
@@ -23,5 +32,6 @@ public interface BaseWordSequenceParser {
     int getLabelMaxLength ();
     void setLabelMaxLength (int labelMaxLength);
     void addWord(String word);
+    void setVocabularyLimits(long minCount, int maxSize);
     List<Integer> text2vecs(String text, String unknown);
 }
@@ -0,0 +1,85 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Source files already ingested into a corpus, one tab separated line per file:
+ * path, size, last modified, first row and number of rows of the file in the corpus.
+ */
+public class CorpusManifest {
+    private Map<String, long[]> entries = new LinkedHashMap<>();
+
+    /**
+     * @return the manifest saved in file, an empty one if file does not exist
+     */
+    public static CorpusManifest load(File file) throws IOException {
+        CorpusManifest manifest = new CorpusManifest();
+        if (!file.exists()) return manifest;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\t");
+                if (fields.length != 5) throw new IOException("Malformed manifest line in " + file + ": " + line);
+                long[] entry = new long[4];
+                for (int i = 0; i < entry.length; i++) {
+                    entry[i] = Long.parseLong(fields[i + 1]);
+                }
+                manifest.entries.put(fields[0], entry);
+            }
+        }
+        return manifest;
+    }
+
+    public boolean contains(File source) {
+        return this.entries.containsKey(source.getAbsolutePath());
+    }
+
+    /**
+     * @return true if source was ingested and its size or modification time changed since
+     */
+    public boolean isModified(File source) {
+        long[] entry = this.entries.get(source.getAbsolutePath());
+        return entry != null && (entry[0] != source.length() || entry[1] != source.lastModified());
+    }
+
+    public void add(File source, int firstRow, int rows) {
+        this.entries.put(source.getAbsolutePath(),
+                new long[]{source.length(), source.lastModified(), firstRow, rows});
+    }
+
+    /**
+     * Rows of the corpus when the manifest was saved, the end of the last ingested file.
+     * Rows after it were written by an append that did not finish and are dropped by the next one.
+     */
+    public int getRows() {
+        long rows = 0;
+        for (long[] entry : this.entries.values()) {
+            rows = Math.max(rows, entry[2] + entry[3]);
+        }
+        return (int) rows;
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (PrintStream out = new PrintStream(temp, StandardCharsets.UTF_8.name())) {
+            out.println("# path\tsize\tmodified\tfirstRow\trows");
+            for (Map.Entry<String, long[]> entry : this.entries.entrySet()) {
+                long[] values = entry.getValue();
+                out.println(entry.getKey() + '\t' + values[0] + '\t' + values[1] + '\t' + values[2] + '\t' + values[3]);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
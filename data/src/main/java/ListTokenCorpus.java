@@ -0,0 +1,24 @@
+import java.util.List;
+
+public class ListTokenCorpus implements BaseTokenCorpus {
+    private List<List<Double>> rows;
+
+    public ListTokenCorpus(List<List<Double>> rows) {
+        this.rows = rows;
+    }
+
+    @Override
+    public int size() {
+        return this.rows.size();
+    }
+
+    @Override
+    public int length(int row) {
+        return this.rows.get(row).size();
+    }
+
+    @Override
+    public int get(int row, int position) {
+        return this.rows.get(row).get(position).intValue();
+    }
+}
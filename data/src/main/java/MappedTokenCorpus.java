@@ -0,0 +1,91 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view over a corpus written by {@link TokenCorpusWriter}.
+ * Nothing is copied onto the heap: rows are read in place from memory-mapped segments,
+ * and absolute reads make the corpus safe to share between threads.
+ */
+public class MappedTokenCorpus implements BaseTokenCorpus, Closeable {
+    // tokens per mapped segment (4 bytes each, 1GiB per segment)
+    private static final int SEGMENT_SHIFT = 28;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private RandomAccessFile file;
+    private int rows;
+    private long tokens;
+    private LongBuffer index;
+    private IntBuffer[] segments;
+
+    public MappedTokenCorpus(File corpusFile) throws IOException {
+        this.file = new RandomAccessFile(corpusFile, "r");
+        FileChannel channel = this.file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(TokenCorpusWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0)
+                throw new IOException("Truncated corpus header: " + corpusFile);
+        }
+        header.flip();
+        if (header.getInt() != TokenCorpusWriter.MAGIC)
+            throw new IOException("Not a token corpus: " + corpusFile);
+        int version = header.getInt();
+        if (version != TokenCorpusWriter.VERSION)
+            throw new IOException("Unsupported token corpus version " + version + ": " + corpusFile);
+        this.rows = header.getInt();
+        header.getInt();
+        this.tokens = header.getLong();
+        long indexPosition = header.getLong();
+
+        long indexBytes = (this.rows + 1L) * Long.BYTES;
+        if (indexBytes > Integer.MAX_VALUE)
+            throw new IOException("Too many rows in token corpus: " + this.rows);
+        this.index = channel.map(FileChannel.MapMode.READ_ONLY, indexPosition, indexBytes)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asLongBuffer();
+
+        int segmentCount = (int) ((this.tokens + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.segments = new IntBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long first = (long) s << SEGMENT_SHIFT;
+            long count = Math.min(1L << SEGMENT_SHIFT, this.tokens - first);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                    TokenCorpusWriter.HEADER_SIZE + first * Integer.BYTES,
+                    count * Integer.BYTES);
+            this.segments[s] = segment.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.rows;
+    }
+
+    @Override
+    public int length(int row) {
+        return (int) (this.index.get(row + 1) - this.index.get(row));
+    }
+
+    @Override
+    public int get(int row, int position) {
+        long token = this.index.get(row) + position;
+        return this.segments[(int) (token >>> SEGMENT_SHIFT)].get((int) (token & SEGMENT_MASK));
+    }
+
+    public long getTokens() {
+        return this.tokens;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+}
@@ -0,0 +1,117 @@
+import net.reduls.igo.Tagger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe igo tokenizer: one tagger, so the dictionary is loaded once, shared by all threads
+ * behind an LRU cache of wakati results bounded by entry count and by total characters.
+ * An igo Tagger only reads its dictionary and keeps the lattice of a call in locals, so concurrent
+ * wakati calls need no lock. Cached token lists are shared between callers and must not be modified.
+ */
+public class PooledJapaneseTextParser implements BaseTextParser {
+    private Tagger tagger;
+
+    private int maxEntries;
+    private long maxChars;
+    private long cachedChars;
+    private LinkedHashMap<String, List<String>> cache;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    public PooledJapaneseTextParser() throws IOException {
+        this("lib/ipadic", 100000, 8L << 20);
+    }
+
+    /**
+     * @param dictionary igo dictionary directory, loaded once
+     * @param maxEntries maximum number of cached texts, 0 disables the cache
+     * @param maxChars maximum number of characters in cached texts and tokens
+     */
+    public PooledJapaneseTextParser(String dictionary, int maxEntries, long maxChars) throws IOException {
+        this.tagger = new Tagger(dictionary);
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public List<String> parse(String text) {
+        if (this.maxEntries > 0) {
+            synchronized (this.cache) {
+                List<String> cached = this.cache.get(text);
+                if (cached != null) {
+                    this.hits.incrementAndGet();
+                    return cached;
+                }
+            }
+        }
+        this.misses.incrementAndGet();
+        List<String> tokens = Collections.unmodifiableList(this.tagger.wakati(text));
+        if (this.maxEntries > 0) put(text, tokens);
+        return tokens;
+    }
+
+    private void put(String text, List<String> tokens) {
+        long chars = chars(text, tokens);
+        if (chars > this.maxChars) return;
+        synchronized (this.cache) {
+            List<String> previous = this.cache.put(text, tokens);
+            if (previous != null) this.cachedChars -= chars(text, previous);
+            this.cachedChars += chars;
+            Iterator<Map.Entry<String, List<String>>> eldest = this.cache.entrySet().iterator();
+            while (this.cache.size() > this.maxEntries || this.cachedChars > this.maxChars) {
+                Map.Entry<String, List<String>> entry = eldest.next();
+                this.cachedChars -= chars(entry.getKey(), entry.getValue());
+                eldest.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static long chars(String text, List<String> tokens) {
+        long chars = text.length();
+        for (String token : tokens) {
+            chars += token.length();
+        }
+        return chars;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public int getCachedEntries() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    public static void main (String... args) throws IOException {
+        PooledJapaneseTextParser textParser = new PooledJapaneseTextParser();
+        textParser.parse("こんにちは、紲星あかりです。").forEach(str -> System.out.println(str));
+        textParser.parse("こんにちは、紲星あかりです。");
+        System.out.println("hits " + textParser.getHits() + " misses " + textParser.getMisses());
+    }
+}
@@ -0,0 +1,218 @@
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assembles seq2seq batches into buffers that are allocated once and reused.
+ *
+ * Every slot owns flat off-heap buffers large enough for the biggest batch. A batch is an
+ * [n, ..., T] view over the head of those buffers, so batches of any shape reuse the same memory.
+ * One-hot tensors are never cleared as a whole: the positions set by the previous batch of a slot
+ * are remembered and reset, and the new positions are scattered straight into the buffer.
+ * In index mode decode and prediction hold token ids, [n, 1, T], instead of one-hot vectors.
+ * Token ids are FP32 whatever the precision, one-hot vectors and masks use the precision's type.
+ *
+ * A slot must not be rebuilt while the batch previously built into it is still in use.
+ */
+public class Seq2SeqBatchBuilder {
+    // WARNING: <eos> == 1 and <go> == 2 in the dictionary.
+    private static final int EOS = 1;
+    private static final int GO = 2;
+
+    private BaseTokenCorpus features;
+    private BaseTokenCorpus labels;
+    private int dictSize;
+    private int capacity;
+    private boolean indices;
+    private Seq2SeqPrecision precision;
+    private Slot[] slots;
+
+    /**
+     * @param capacity maximum number of (example, timestep) cells of one batch
+     * @param slotCount number of batches that may be alive at the same time
+     * @param indices build decode and prediction as token ids instead of one-hot vectors
+     * @param precision type of the one-hot and mask arrays
+     */
+    public Seq2SeqBatchBuilder(BaseTokenCorpus features,
+                               BaseTokenCorpus labels,
+                               int dictSize,
+                               int capacity,
+                               int slotCount,
+                               boolean indices,
+                               Seq2SeqPrecision precision) {
+        if (!indices && (long) capacity * dictSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("One-hot buffers of " + capacity + " x " + dictSize + " are too large");
+        this.features = features;
+        this.labels = labels;
+        this.dictSize = dictSize;
+        this.capacity = capacity;
+        this.indices = indices;
+        this.precision = precision;
+        this.slots = new Slot[slotCount];
+        // slots outlive any workspace scope the caller may be in, so keep them detached
+        try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            for (int i = 0; i < slotCount; i++) {
+                this.slots[i] = new Slot();
+            }
+        }
+    }
+
+    public int getSlotCount() {
+        return this.slots.length;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Builds the batch made of rows[offset .. offset + count) into the given slot,
+     * padded to inputLength encoder steps and outputLength decoder steps.
+     */
+    public MultiDataSet build(int slotIndex, int[] rows, int offset, int count,
+                              int inputLength, int outputLength) {
+        if ((long) count * Math.max(inputLength, outputLength) > this.capacity)
+            throw new IllegalArgumentException("Batch of " + count + " x " + Math.max(inputLength, outputLength)
+                    + " exceeds the builder capacity " + this.capacity);
+        Slot slot = this.slots[slotIndex];
+        slot.clearOneHot();
+
+        DataBuffer input = slot.input.data();
+        DataBuffer inputMask = slot.inputMask.data();
+        DataBuffer predictionMask = slot.predictionMask.data();
+
+        for (int j = 0; j < count; j++) {
+            int row = rows[offset + j];
+
+            int inLength = Math.min(this.features.length(row), inputLength);
+            long base = (long) j * inputLength;
+            for (int t = 0; t < inputLength; t++) {
+                if (t < inLength) {
+                    input.put(base + t, this.features.get(row, t));
+                    inputMask.put(base + t, 1.0);
+                } else {
+                    input.put(base + t, 0.0);
+                    inputMask.put(base + t, 0.0);
+                }
+            }
+
+            // pred  :     A   B   C   ... Z  <eos>
+            // decode:   <go>  A   B   C  ...    Z
+            int labelLength = Math.min(this.labels.length(row), outputLength - 1);
+            int predLength = labelLength + 1;
+            base = (long) j * outputLength;
+            if (this.indices) {
+                DataBuffer decode = slot.decode.data();
+                DataBuffer prediction = slot.prediction.data();
+                int previous = GO;
+                for (int t = 0; t < outputLength; t++) {
+                    if (t < predLength) {
+                        int id = t < labelLength ? this.labels.get(row, t) : EOS;
+                        decode.put(base + t, previous);
+                        prediction.put(base + t, id);
+                        predictionMask.put(base + t, 1.0);
+                        previous = id;
+                    } else {
+                        decode.put(base + t, 0.0);
+                        prediction.put(base + t, 0.0);
+                        predictionMask.put(base + t, 0.0);
+                    }
+                }
+                continue;
+            }
+            slot.setDecode(j, GO, 0, outputLength);
+            for (int t = 0; t < outputLength; t++) {
+                if (t < predLength) {
+                    int id = t < labelLength ? this.labels.get(row, t) : EOS;
+                    slot.setPrediction(j, id, t, outputLength);
+                    if (t + 1 < predLength) slot.setDecode(j, id, t + 1, outputLength);
+                    predictionMask.put(base + t, 1.0);
+                } else {
+                    predictionMask.put(base + t, 0.0);
+                }
+            }
+        }
+        return slot.view(count, inputLength, outputLength);
+    }
+
+    private class Slot {
+        private INDArray input;
+        private INDArray decode;
+        private INDArray prediction;
+        private INDArray inputMask;
+        private INDArray predictionMask;
+
+        // flat positions set to 1 in decode / prediction by the last batch
+        private long[] decodeDirty;
+        private long[] predictionDirty;
+        private int decodeDirtyCount;
+        private int predictionDirtyCount;
+
+        private Map<Long, MultiDataSet> views;
+
+        private Slot() {
+            int width = indices ? 1 : dictSize;
+            DataType values = precision.getDataType();
+            DataType tokens = indices ? DataType.FLOAT : values;
+            this.input = Nd4j.zeros(DataType.FLOAT, 1, capacity);
+            this.decode = Nd4j.zeros(tokens, 1, (long) capacity * width);
+            this.prediction = Nd4j.zeros(tokens, 1, (long) capacity * width);
+            this.inputMask = Nd4j.zeros(values, 1, capacity);
+            this.predictionMask = Nd4j.zeros(values, 1, capacity);
+            this.decodeDirty = new long[indices ? 0 : capacity];
+            this.predictionDirty = new long[indices ? 0 : capacity];
+            this.views = new HashMap<>();
+        }
+
+        private void setDecode(int example, int id, int t, int length) {
+            long position = ((long) example * dictSize + id) * length + t;
+            this.decode.data().put(position, 1.0);
+            this.decodeDirty[this.decodeDirtyCount++] = position;
+        }
+
+        private void setPrediction(int example, int id, int t, int length) {
+            long position = ((long) example * dictSize + id) * length + t;
+            this.prediction.data().put(position, 1.0);
+            this.predictionDirty[this.predictionDirtyCount++] = position;
+        }
+
+        private void clearOneHot() {
+            DataBuffer decodeData = this.decode.data();
+            for (int i = 0; i < this.decodeDirtyCount; i++) {
+                decodeData.put(this.decodeDirty[i], 0.0);
+            }
+            this.decodeDirtyCount = 0;
+            DataBuffer predictionData = this.prediction.data();
+            for (int i = 0; i < this.predictionDirtyCount; i++) {
+                predictionData.put(this.predictionDirty[i], 0.0);
+            }
+            this.predictionDirtyCount = 0;
+        }
+
+        private MultiDataSet view(int count, int inputLength, int outputLength) {
+            long key = ((long) count << 32) | ((long) inputLength << 16) | outputLength;
+            MultiDataSet view = this.views.get(key);
+            if (view == null) {
+                INDArray inputView = Nd4j.create(this.input.data(), new int[]{count, 1, inputLength});
+                int width = indices ? 1 : dictSize;
+                INDArray decodeView = Nd4j.create(this.decode.data(), new int[]{count, width, outputLength});
+                INDArray predictionView = Nd4j.create(this.prediction.data(), new int[]{count, width, outputLength});
+                INDArray inputMaskView = Nd4j.create(this.inputMask.data(), new int[]{count, inputLength});
+                INDArray predictionMaskView = Nd4j.create(this.predictionMask.data(), new int[]{count, outputLength});
+                view = new org.nd4j.linalg.dataset.MultiDataSet(
+                        new INDArray[]{inputView, decodeView},
+                        new INDArray[]{predictionView},
+                        new INDArray[]{inputMaskView, predictionMaskView},
+                        new INDArray[]{predictionMaskView});
+                this.views.put(key, view);
+            }
+            return view;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The batches of one epoch: which rows go into each batch and how many timesteps it is padded to.
+ * Rows of batch b are order[offset(b) .. offset(b) + count(b)).
+ */
+public class Seq2SeqBatchPlan {
+    private int[] order;
+    private int[] offsets;
+    private int[] counts;
+    private int[] inputLengths;
+    private int[] outputLengths;
+    private long paddedTokens;
+
+    private Seq2SeqBatchPlan(int[] order, int batches) {
+        this.order = order;
+        this.offsets = new int[batches];
+        this.counts = new int[batches];
+        this.inputLengths = new int[batches];
+        this.outputLengths = new int[batches];
+    }
+
+    /**
+     * Batches of batchSize consecutive rows, all padded to rowSize.
+     */
+    public static Seq2SeqBatchPlan sequential(int[] rows, int batchSize, int rowSize) {
+        int batches = (int) Math.ceil((double) rows.length / batchSize);
+        Seq2SeqBatchPlan plan = new Seq2SeqBatchPlan(rows, batches);
+        for (int b = 0; b < batches; b++) {
+            plan.offsets[b] = b * batchSize;
+            plan.counts[b] = Math.min(batchSize, rows.length - b * batchSize);
+            plan.inputLengths[b] = rowSize;
+            plan.outputLengths[b] = rowSize;
+            plan.paddedTokens += (long) plan.counts[b] * rowSize;
+        }
+        return plan;
+    }
+
+    /**
+     * Groups rows into buckets of bucketWidth timesteps and cuts every bucket into batches that are
+     * padded only to their longest sequence. With tokensPerBatch > 0 a batch holds as many rows as fit
+     * in that many padded timesteps instead of batchSize rows. Rows within a bucket and the order of
+     * the batches are shuffled with the given random.
+     */
+    public static Seq2SeqBatchPlan bucketed(BaseTokenCorpus features,
+                                            BaseTokenCorpus labels,
+                                            int[] rows,
+                                            int batchSize,
+                                            int tokensPerBatch,
+                                            int bucketWidth,
+                                            int rowSize,
+                                            Random random) {
+        int bucketCount = (rowSize + bucketWidth - 1) / bucketWidth;
+        int[] bucketSizes = new int[bucketCount + 1];
+        int[] lengths = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            lengths[i] = Math.max(inputLength(features, rows[i], rowSize), outputLength(labels, rows[i], rowSize));
+            ++bucketSizes[bucket(lengths[i], bucketWidth) + 1];
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            bucketSizes[b + 1] += bucketSizes[b];
+        }
+        // bucketSizes now holds the start of every bucket
+        int[] bucketStarts = bucketSizes.clone();
+        int[] order = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            order[bucketSizes[bucket(lengths[i], bucketWidth)]++] = rows[i];
+        }
+
+        int[] batchStarts = new int[rows.length];
+        int[] batchCounts = new int[rows.length];
+        int batches = 0;
+        for (int b = 0; b < bucketCount; b++) {
+            int start = bucketStarts[b];
+            int end = bucketStarts[b + 1];
+            shuffle(order, start, end, random);
+            int limit = batchSize;
+            if (tokensPerBatch > 0) {
+                int longest = Math.min(rowSize, (b + 1) * bucketWidth);
+                limit = Math.max(1, tokensPerBatch / longest);
+            }
+            for (int pos = start; pos < end; pos += limit) {
+                batchStarts[batches] = pos;
+                batchCounts[batches] = Math.min(limit, end - pos);
+                ++batches;
+            }
+        }
+
+        int[] batchOrder = new int[batches];
+        for (int b = 0; b < batches; b++) {
+            batchOrder[b] = b;
+        }
+        shuffle(batchOrder, 0, batches, random);
+
+        Seq2SeqBatchPlan plan = new Seq2SeqBatchPlan(order, batches);
+        for (int b = 0; b < batches; b++) {
+            plan.setBatch(b, batchStarts[batchOrder[b]], batchCounts[batchOrder[b]], features, labels, rowSize);
+        }
+        return plan;
+    }
+
+    /**
+     * Streams the rows shard by shard, in a shard order shuffled with the given random, through a shuffle
+     * buffer of bufferSize rows, and cuts the result into batches of batchSize consecutive rows padded
+     * to their longest sequence. Rows only move within the reach of the buffer, so an epoch reads the
+     * shards one after the other instead of jumping around the whole corpus.
+     * @param shardStarts first row of every shard, followed by the number of rows of the corpus
+     */
+    public static Seq2SeqBatchPlan shuffled(BaseTokenCorpus features,
+                                            BaseTokenCorpus labels,
+                                            int[] rows,
+                                            int[] shardStarts,
+                                            int batchSize,
+                                            int bufferSize,
+                                            int rowSize,
+                                            Random random) {
+        // group the rows by shard, keeping their order within a shard
+        int shardCount = shardStarts.length - 1;
+        int[] shardOfRow = new int[rows.length];
+        int[] groupStarts = new int[shardCount + 1];
+        for (int i = 0; i < rows.length; i++) {
+            int shard = Arrays.binarySearch(shardStarts, rows[i]);
+            if (shard < 0) shard = -shard - 2;
+            while (shard + 1 < shardCount && shardStarts[shard + 1] == rows[i]) ++shard;
+            shardOfRow[i] = shard;
+            ++groupStarts[shard + 1];
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            groupStarts[shard + 1] += groupStarts[shard];
+        }
+        int[] grouped = new int[rows.length];
+        int[] positions = Arrays.copyOf(groupStarts, shardCount);
+        for (int i = 0; i < rows.length; i++) {
+            grouped[positions[shardOfRow[i]]++] = rows[i];
+        }
+
+        int[] shardOrder = new int[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            shardOrder[shard] = shard;
+        }
+        shuffle(shardOrder, 0, shardCount, random);
+
+        int[] order = new int[rows.length];
+        int[] buffer = new int[Math.max(1, Math.min(bufferSize, rows.length))];
+        int filled = 0;
+        int out = 0;
+        for (int shard : shardOrder) {
+            for (int i = groupStarts[shard]; i < groupStarts[shard + 1]; i++) {
+                if (filled < buffer.length) {
+                    buffer[filled++] = grouped[i];
+                } else {
+                    int j = random.nextInt(buffer.length);
+                    order[out++] = buffer[j];
+                    buffer[j] = grouped[i];
+                }
+            }
+        }
+        shuffle(buffer, 0, filled, random);
+        System.arraycopy(buffer, 0, order, out, filled);
+
+        int batches = (int) Math.ceil((double) rows.length / batchSize);
+        Seq2SeqBatchPlan plan = new Seq2SeqBatchPlan(order, batches);
+        for (int b = 0; b < batches; b++) {
+            plan.setBatch(b, b * batchSize, Math.min(batchSize, rows.length - b * batchSize), features, labels, rowSize);
+        }
+        return plan;
+    }
+
+    // batch b is order[start .. start + count), padded to its longest sequence
+    private void setBatch(int b, int start, int count, BaseTokenCorpus features, BaseTokenCorpus labels, int rowSize) {
+        int inputLength = 1;
+        int outputLength = 1;
+        for (int i = start; i < start + count; i++) {
+            inputLength = Math.max(inputLength, inputLength(features, this.order[i], rowSize));
+            outputLength = Math.max(outputLength, outputLength(labels, this.order[i], rowSize));
+        }
+        this.offsets[b] = start;
+        this.counts[b] = count;
+        this.inputLengths[b] = inputLength;
+        this.outputLengths[b] = outputLength;
+        this.paddedTokens += (long) count * Math.max(inputLength, outputLength);
+    }
+
+    private static int inputLength(BaseTokenCorpus features, int row, int rowSize) {
+        return Math.min(features.length(row), rowSize);
+    }
+
+    private static int outputLength(BaseTokenCorpus labels, int row, int rowSize) {
+        // labels get an <eos> appended
+        return Math.min(labels.length(row) + 1, rowSize);
+    }
+
+    private static int bucket(int length, int bucketWidth) {
+        return Math.max(0, length - 1) / bucketWidth;
+    }
+
+    private static void shuffle(int[] array, int from, int to, Random random) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    public int size() {
+        return this.offsets.length;
+    }
+
+    public int[] getOrder() {
+        return this.order;
+    }
+
+    public int getOffset(int batch) {
+        return this.offsets[batch];
+    }
+
+    public int getCount(int batch) {
+        return this.counts[batch];
+    }
+
+    public int getInputLength(int batch) {
+        return this.inputLengths[batch];
+    }
+
+    public int getOutputLength(int batch) {
+        return this.outputLengths[batch];
+    }
+
+    public long getPaddedTokens() {
+        return this.paddedTokens;
+    }
+}
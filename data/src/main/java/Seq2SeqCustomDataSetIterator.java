@@ -1,24 +1,31 @@
-import org.apache.commons.lang.ArrayUtils;
 import org.datavec.api.records.reader.impl.csv.CSVLineSequenceRecordReader;
 import org.datavec.api.split.FileSplit;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.INDArrayIndex;
-import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @SuppressWarnings("serial")
 public class Seq2SeqCustomDataSetIterator implements MultiDataSetIterator {
-    private List<List<Double>> features;
-    private List<List<Double>> labels;
+    private BaseTokenCorpus features;
+    private BaseTokenCorpus labels;
 
     private int batchSize;
     private int batchesPerMacrobatch;
@@ -30,23 +37,78 @@ public class Seq2SeqCustomDataSetIterator implements MultiDataSetIterator {
     private int rowSize;
     private MultiDataSetPreProcessor preProcessor;
 
+    private int[] rows;
+    private Seq2SeqBatchPlan batchPlan;
+    // built on first use, null after any setting it depends on changed
+    private Seq2SeqBatchBuilder batchBuilder;
+    private int slotCount = 2;
+    private boolean indices = false;
+    private Seq2SeqPrecision precision = Seq2SeqPrecision.FP32;
+    private TrainingMetrics metrics;
+
+    // distillation targets, see setSoftTargets
+    private TeacherTopKCache teacherCache;
+    private double temperature;
+    private double alpha;
+
+    // bucketing, see setBucketing
+    private int bucketWidth = 0;
+    private int tokensPerBatch = 0;
+    private long seed = 0;
+    private int epoch = 0;
+
+    // streaming shuffle, see setShuffleBuffer
+    private int shuffleBuffer = 0;
+
+    // prefetching, see setPrefetch
+    private ExecutorService prefetchExecutor;
+    private int prefetchQueueSize;
+    private ArrayDeque<PrefetchTask> prefetched = new ArrayDeque<>();
+    private int prefetchedBatch;
+
     public Seq2SeqCustomDataSetIterator(List<List<Double>> features,
                                         List<List<Double>> labels,
                                         int batchSize,
                                         int batchesPerMacrobatch,
                                         int dictSize,
                                         int rowSize) {
+        this(new ListTokenCorpus(features), new ListTokenCorpus(labels),
+                batchSize, batchesPerMacrobatch, dictSize, rowSize);
+    }
+
+    public Seq2SeqCustomDataSetIterator(BaseTokenCorpus features,
+                                        BaseTokenCorpus labels,
+                                        int batchSize,
+                                        int batchesPerMacrobatch,
+                                        int dictSize,
+                                        int rowSize) {
+        this(features, labels, batchSize, batchesPerMacrobatch, dictSize, rowSize, allRows(features.size()));
+        plan();
+    }
+
+    // neither planned nor buffered yet, see withRows
+    private Seq2SeqCustomDataSetIterator(BaseTokenCorpus features,
+                                         BaseTokenCorpus labels,
+                                         int batchSize,
+                                         int batchesPerMacrobatch,
+                                         int dictSize,
+                                         int rowSize,
+                                         int[] rows) {
         this.features = features;
         this.labels = labels;
         this.batchSize = batchSize;
         this.batchesPerMacrobatch = batchesPerMacrobatch;
         this.dictSize = dictSize;
         this.rowSize = rowSize;
+        this.rows = rows;
+    }
 
-        this.totalBatches =
-                (int) Math.ceil((double) this.features.size() / this.batchSize);
-        this.totalMacroBatches =
-                (int) Math.ceil((double) this.totalBatches / this.batchesPerMacrobatch);
+    private static int[] allRows(int size) {
+        int[] rows = new int[size];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        return rows;
     }
 
     public Seq2SeqCustomDataSetIterator(File featuresFile,
@@ -71,17 +133,15 @@ public class Seq2SeqCustomDataSetIterator implements MultiDataSetIterator {
             listList1.add(labelsReader.next().stream().map(w -> w.toDouble()).collect(Collectors.toList()));
         }
 
-        this.features = listList;
-        this.labels = listList1;
+        this.features = new ListTokenCorpus(listList);
+        this.labels = new ListTokenCorpus(listList1);
         this.batchSize = batchSize;
         this.batchesPerMacrobatch = batchesPerMacrobatch;
         this.dictSize = dictSize;
         this.rowSize = rowSize;
 
-        this.totalBatches =
-                (int) Math.ceil((double) this.features.size() / this.batchSize);
-        this.totalMacroBatches =
-                (int) Math.ceil((double) this.totalBatches / this.batchesPerMacrobatch);
+        this.rows = allRows(this.features.size());
+        plan();
     }
 
     private int getMacroBatchByCurrentBatch() {
@@ -90,80 +150,425 @@ public class Seq2SeqCustomDataSetIterator implements MultiDataSetIterator {
 
     @Override
     public MultiDataSet next(int i) {
-        int pos = this.currentBatch * this.batchSize;
-        int currentBatchSize = Math.min(this.batchSize, this.features.size() - pos);
-
-        INDArray input = Nd4j.zeros(currentBatchSize, 1, this.rowSize);
-        INDArray prediction = Nd4j.zeros(currentBatchSize, this.dictSize, this.rowSize);
-        INDArray decode = Nd4j.zeros(currentBatchSize, this.dictSize, this.rowSize);
-        INDArray inputMask = Nd4j.zeros(currentBatchSize, this.rowSize);
-        INDArray predictionMask = Nd4j.zeros(currentBatchSize, this.rowSize);
-
-        for (int j = 0; j < currentBatchSize; j++) {
-            List<Double> rowIn = new ArrayList<>(this.features.get(pos));
-            List<Double> rowPred = new ArrayList<>(this.labels.get(pos));
-
-            rowPred.add(1.0); // add <eos> WARNING:  <eos> == 1.0 in the dictionary.
-            input.put(new INDArrayIndex[]{
-                            NDArrayIndex.point(j),
-                            NDArrayIndex.point(0),
-                            NDArrayIndex.interval(0, rowIn.size())},
-                    Nd4j.create(ArrayUtils.toPrimitive(rowIn.toArray(new Double[0]))));
-            inputMask.put(new INDArrayIndex[]{
-                            NDArrayIndex.point(j),
-                            NDArrayIndex.interval(0, rowIn.size())},
-                    Nd4j.ones(rowIn.size()));
-            predictionMask.put(new INDArrayIndex[]{
-                            NDArrayIndex.point(j),
-                            NDArrayIndex.interval(0, rowPred.size())},
-                    Nd4j.ones(rowPred.size()));
-
-            double predOneHot[][] = new double[this.dictSize][rowPred.size()];
-            double decodeOneHot[][] = new double[this.dictSize][rowPred.size()];
-            decodeOneHot[2][0] = 1; // add <go> WARNING: <go> == 2.0 in the dictionary.
-
-            // pred  :     A   B   C   ... Z  <eos>
-            // decode:   <go>  A   B   C  ...    Z
-
-            int predIdx = 0;
-            for (Double pred :
-                    rowPred) {
-                predOneHot[pred.intValue()][predIdx] = 1;
-                if (predIdx < rowPred.size() - 1)
-                    decodeOneHot[pred.intValue()][predIdx + 1] = 1;
-                ++predIdx;
+        long start = this.metrics != null ? System.nanoTime() : 0;
+        MultiDataSet batch;
+        if (this.prefetchExecutor != null) {
+            fillPrefetchQueue();
+            batch = takePrefetched();
+        } else {
+            batch = buildBatch(getBatchBuilder(), this.batchPlan, this.currentBatch);
+        }
+        if (this.metrics != null) this.metrics.recordEtlWait(System.nanoTime() - start);
+        ++this.currentBatch;
+        if (this.prefetchExecutor != null) fillPrefetchQueue();
+        if (this.preProcessor != null) this.preProcessor.preProcess(batch);
+        return batch;
+    }
+
+    // builder and plan are passed in, prefetch tasks build with the ones of the time they were submitted
+    private MultiDataSet buildBatch(Seq2SeqBatchBuilder builder, Seq2SeqBatchPlan plan, int batch) {
+        long start = this.metrics != null ? System.nanoTime() : 0;
+        int slot = batch % builder.getSlotCount();
+        MultiDataSet dataSet = builder.build(slot,
+                plan.getOrder(),
+                plan.getOffset(batch),
+                plan.getCount(batch),
+                plan.getInputLength(batch),
+                plan.getOutputLength(batch));
+        if (this.teacherCache != null) {
+            // a new batch, the slot views are reused
+            INDArray labels = this.teacherCache.mix(dataSet.getLabels(0), plan.getOrder(),
+                    plan.getOffset(batch), plan.getCount(batch), this.temperature, this.alpha);
+            dataSet = new org.nd4j.linalg.dataset.MultiDataSet(dataSet.getFeatures(), new INDArray[]{labels},
+                    dataSet.getFeaturesMaskArrays(), dataSet.getLabelsMaskArrays());
+        }
+        if (this.metrics != null) recordBatch(plan, batch, System.nanoTime() - start);
+        return dataSet;
+    }
+
+    private void recordBatch(Seq2SeqBatchPlan plan, int batch, long buildNanos) {
+        int[] order = plan.getOrder();
+        int offset = plan.getOffset(batch);
+        int count = plan.getCount(batch);
+        int inputLength = plan.getInputLength(batch);
+        int outputLength = plan.getOutputLength(batch);
+        long realTokens = 0;
+        for (int j = 0; j < count; j++) {
+            int row = order[offset + j];
+            realTokens += Math.min(this.features.length(row), inputLength);
+            realTokens += Math.min(this.labels.length(row) + 1, outputLength);
+        }
+        this.metrics.recordBatch(count, realTokens, (long) count * (inputLength + outputLength), buildNanos);
+    }
+
+    /**
+     * Records batch build time, ETL wait and token counts, null turns recording off.
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Builds the next queueSize batches ahead of the consumer on worker threads.
+     * Batches are still returned in plan order, so currentBatch, macro batches and
+     * setCurrentBatch keep their meaning. Passing workers <= 0 turns prefetching off.
+     */
+    public void setPrefetch(int workers, int queueSize) {
+        shutdownPrefetch();
+        if (workers <= 0) return;
+        this.prefetchQueueSize = Math.max(1, queueSize);
+        // one slot per queued batch, one for the batch being consumed and one spare
+        setBufferSlots(this.prefetchQueueSize + 2);
+        AtomicInteger threadId = new AtomicInteger();
+        this.prefetchExecutor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "seq2seq-prefetch-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void shutdownPrefetch() {
+        cancelPrefetch();
+        if (this.prefetchExecutor != null) {
+            this.prefetchExecutor.shutdownNow();
+            this.prefetchExecutor = null;
+        }
+    }
+
+    private void fillPrefetchQueue() {
+        if (this.prefetched.isEmpty()) this.prefetchedBatch = this.currentBatch;
+        while (this.prefetched.size() < this.prefetchQueueSize && this.prefetchedBatch < this.totalBatches) {
+            PrefetchTask task = new PrefetchTask(getBatchBuilder(), this.batchPlan, this.prefetchedBatch++);
+            task.future = this.prefetchExecutor.submit(task);
+            this.prefetched.add(task);
+        }
+    }
+
+    private MultiDataSet takePrefetched() {
+        try {
+            return this.prefetched.poll().future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch " + this.currentBatch, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build batch " + this.currentBatch, e.getCause());
+        }
+    }
+
+    // drops batches built ahead, waiting for running builds so their slots can be reused
+    private void cancelPrefetch() {
+        PrefetchTask task;
+        while ((task = this.prefetched.poll()) != null) {
+            task.cancel();
+        }
+    }
+
+    // one batch built ahead; a build that has started always runs to the end before cancel returns
+    private class PrefetchTask implements Callable<MultiDataSet> {
+        private final Seq2SeqBatchBuilder builder;
+        private final Seq2SeqBatchPlan plan;
+        private final int batch;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Future<MultiDataSet> future;
+
+        private PrefetchTask(Seq2SeqBatchBuilder builder, Seq2SeqBatchPlan plan, int batch) {
+            this.builder = builder;
+            this.plan = plan;
+            this.batch = batch;
+        }
+
+        @Override
+        public MultiDataSet call() {
+            if (!this.claimed.compareAndSet(false, true)) return null;
+            try {
+                return buildBatch(this.builder, this.plan, this.batch);
+            } finally {
+                this.done.countDown();
             }
+        }
 
-            decode.put(new INDArrayIndex[]{
-                            NDArrayIndex.point(j),
-                            NDArrayIndex.interval(0, this.dictSize),
-                            NDArrayIndex.interval(0, rowPred.size())},
-                    Nd4j.create(decodeOneHot));
+        private void cancel() {
+            // not started yet, it will not build
+            if (this.claimed.compareAndSet(false, true)) return;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // the slot must not be reused before the build ends
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
 
-            prediction.put(new INDArrayIndex[]{
-                            NDArrayIndex.point(j),
-                            NDArrayIndex.interval(0, this.dictSize),
-                            NDArrayIndex.interval(0, rowPred.size())},
-                    Nd4j.create(predOneHot));
+    private void plan() {
+        cancelPrefetch();
+        if (this.shuffleBuffer > 0) {
+            this.batchPlan = Seq2SeqBatchPlan.shuffled(this.features, this.labels, this.rows, getShardStarts(),
+                    this.batchSize, this.shuffleBuffer, this.rowSize,
+                    new Random(this.seed * 31 + this.epoch));
+        } else if (this.bucketWidth > 0) {
+            this.batchPlan = Seq2SeqBatchPlan.bucketed(this.features, this.labels, this.rows,
+                    this.batchSize, this.tokensPerBatch, this.bucketWidth, this.rowSize,
+                    new Random(this.seed * 31 + this.epoch));
+        } else {
+            this.batchPlan = Seq2SeqBatchPlan.sequential(this.rows, this.batchSize, this.rowSize);
+        }
+        this.totalBatches = this.batchPlan.size();
+        this.totalMacroBatches =
+                (int) Math.ceil((double) this.totalBatches / this.batchesPerMacrobatch);
+    }
+
+    // shard boundaries of a sharded corpus, the whole corpus is one shard otherwise
+    private int[] getShardStarts() {
+        if (this.features instanceof ShardedTokenCorpus) return ((ShardedTokenCorpus) this.features).getShardStarts();
+        return new int[]{0, this.features.size()};
+    }
+
+    private int getBatchCapacity() {
+        if (this.shuffleBuffer > 0) return this.batchSize * this.rowSize;
+        if (this.bucketWidth > 0 && this.tokensPerBatch > 0)
+            return Math.max(this.tokensPerBatch, this.rowSize);
+        return this.batchSize * this.rowSize;
+    }
 
-            ++pos;
+    /**
+     * Number of batches whose buffers are in use at the same time, the buffers are allocated on the next batch.
+     */
+    public void setBufferSlots(int slotCount) {
+        this.slotCount = slotCount;
+        dropBatchBuilder();
+    }
+
+    // the buffers are reallocated with the current settings on the next batch
+    private void dropBatchBuilder() {
+        cancelPrefetch();
+        this.batchBuilder = null;
+    }
+
+    private Seq2SeqBatchBuilder getBatchBuilder() {
+        if (this.batchBuilder == null) {
+            this.batchBuilder = new Seq2SeqBatchBuilder(this.features, this.labels,
+                    this.dictSize, getBatchCapacity(), this.slotCount, this.indices, this.precision);
         }
-        ++this.currentBatch;
-        return new org.nd4j.linalg.dataset.MultiDataSet(
-                new INDArray[]{ input, decode},
-                new INDArray[] { prediction},
-                new INDArray[] { inputMask, predictionMask},
-                new INDArray[] { predictionMask});
+        return this.batchBuilder;
+    }
+
+    /**
+     * In index mode the decoder input and the labels are token ids, [batch, 1, T],
+     * for graphs that embed the decoder input and use a sparse loss.
+     */
+    public void setIndexMode(boolean indices) {
+        this.indices = indices;
+        dropBatchBuilder();
+    }
+
+    public boolean isIndexMode() {
+        return this.indices;
+    }
+
+    /**
+     * Builds one-hot vectors and masks in the given precision, token ids stay FP32.
+     */
+    public void setPrecision(Seq2SeqPrecision precision) {
+        this.precision = precision;
+        dropBatchBuilder();
+    }
+
+    public Seq2SeqPrecision getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Trains on a mix of the cached teacher distributions, softened with temperature, and the hard labels,
+     * see TeacherTopKCache.mix. Only in one-hot mode, null goes back to hard labels.
+     * Iterators made by holdOut and partition keep hard labels.
+     */
+    public void setSoftTargets(TeacherTopKCache teacherCache, double temperature, double alpha) {
+        if (teacherCache != null && this.indices)
+            throw new IllegalStateException("Soft targets need one-hot labels, not index mode");
+        cancelPrefetch();
+        this.teacherCache = teacherCache;
+        this.temperature = temperature;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Groups examples of similar length into buckets of bucketWidth timesteps and pads every batch
+     * only to its longest sequence. With tokensPerBatch > 0 batches are sized by padded timesteps
+     * instead of batchSize. The order of the batches is reshuffled from seed at every epoch.
+     * Passing bucketWidth <= 0 goes back to fixed rowSize batches in file order.
+     */
+    public void setBucketing(int bucketWidth, int tokensPerBatch, long seed) {
+        this.bucketWidth = bucketWidth;
+        this.tokensPerBatch = tokensPerBatch;
+        this.seed = seed;
+        plan();
+        dropBatchBuilder();
+        setCurrentBatch(0);
+    }
+
+    /**
+     * Shuffles every epoch without a global permutation: shards are visited in a random order and
+     * their rows pass through a shuffle buffer of bufferSize rows, see Seq2SeqBatchPlan.shuffled.
+     * The order only depends on seed and epoch, so setEpoch and setCurrentBatch restore a position.
+     * Takes precedence over bucketing, passing bufferSize <= 0 turns it off.
+     */
+    public void setShuffleBuffer(int bufferSize, long seed) {
+        this.shuffleBuffer = bufferSize;
+        this.seed = seed;
+        plan();
+        dropBatchBuilder();
+        setCurrentBatch(0);
+    }
+
+    /**
+     * Restricts the iterator to the given corpus rows and starts over at the first batch.
+     */
+    public void setRows(int[] rows) {
+        this.rows = rows;
+        plan();
+        dropBatchBuilder();
+        setCurrentBatch(0);
+    }
+
+    public int[] getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the corpus rows of the given batch of the current epoch, in batch order
+     */
+    public int[] getBatchRows(int batch) {
+        int offset = this.batchPlan.getOffset(batch);
+        return Arrays.copyOfRange(this.batchPlan.getOrder(), offset, offset + this.batchPlan.getCount(batch));
+    }
+
+    /**
+     * Occurrences of every token id in the labels of this iterator's rows, as far as batches read them.
+     * <eos> is counted once per row, the batches append it.
+     */
+    public long[] countLabelTokens() {
+        long[] counts = new long[this.dictSize];
+        for (int row : this.rows) {
+            int length = Math.min(this.labels.length(row), this.rowSize - 1);
+            for (int t = 0; t < length; t++) {
+                ++counts[this.labels.get(row, t)];
+            }
+        }
+        // WARNING: <eos> == 1 in the dictionary.
+        counts[1] += this.rows.length;
+        return counts;
+    }
+
+    public BaseTokenCorpus getFeatures() {
+        return this.features;
+    }
+
+    public BaseTokenCorpus getLabels() {
+        return this.labels;
+    }
+
+    /**
+     * A new iterator over every count-th row of this one, starting at index, with the same batching,
+     * bucketing, seed, epoch and mode. Partitions are disjoint and share the corpus of this iterator.
+     * On a sharded corpus with at least count shards, partitions get every count-th shard instead.
+     */
+    public Seq2SeqCustomDataSetIterator partition(int index, int count) {
+        int[] shardStarts = getShardStarts();
+        if (shardStarts.length - 1 >= count && count > 1) {
+            int[] subset = new int[this.rows.length];
+            int size = 0;
+            for (int row : this.rows) {
+                int shard = Arrays.binarySearch(shardStarts, row);
+                if (shard < 0) shard = -shard - 2;
+                while (shardStarts[shard + 1] == row) ++shard;
+                if (shard % count == index) subset[size++] = row;
+            }
+            return withRows(Arrays.copyOf(subset, size));
+        }
+        int[] subset = new int[Math.max(0, (this.rows.length - index + count - 1) / count)];
+        for (int i = 0; i < subset.length; i++) {
+            subset[i] = this.rows[index + i * count];
+        }
+        return withRows(subset);
+    }
+
+    /**
+     * Moves a deterministic fraction of the rows to a new held-out iterator. A row is held out
+     * by a hash of its corpus index and seed, so the split does not depend on the row order
+     * and stays the same across runs over the same corpus.
+     */
+    public Seq2SeqCustomDataSetIterator holdOut(double fraction, long seed) {
+        int[] kept = new int[this.rows.length];
+        int[] heldOut = new int[this.rows.length];
+        int keptCount = 0;
+        int heldOutCount = 0;
+        for (int row : this.rows) {
+            if (isHeldOut(row, fraction, seed)) heldOut[heldOutCount++] = row;
+            else kept[keptCount++] = row;
+        }
+        setRows(Arrays.copyOf(kept, keptCount));
+        Seq2SeqCustomDataSetIterator heldOutIterator = withRows(Arrays.copyOf(heldOut, heldOutCount));
+        heldOutIterator.setMetrics(null);
+        return heldOutIterator;
+    }
+
+    private static boolean isHeldOut(int row, double fraction, long seed) {
+        // splitmix64 finalizer
+        long hash = row + seed * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash = hash ^ (hash >>> 31);
+        return (hash >>> 11) * 0x1.0p-53 < fraction;
+    }
+
+    // a new iterator over the given rows with the settings of this one
+    private Seq2SeqCustomDataSetIterator withRows(int[] rows) {
+        Seq2SeqCustomDataSetIterator iterator = new Seq2SeqCustomDataSetIterator(this.features, this.labels,
+                this.batchSize, this.batchesPerMacrobatch, this.dictSize, this.rowSize, rows);
+        iterator.indices = this.indices;
+        iterator.precision = this.precision;
+        iterator.bucketWidth = this.bucketWidth;
+        iterator.tokensPerBatch = this.tokensPerBatch;
+        iterator.seed = this.seed;
+        iterator.epoch = this.epoch;
+        iterator.shuffleBuffer = this.shuffleBuffer;
+        iterator.preProcessor = this.preProcessor;
+        iterator.metrics = this.metrics;
+        iterator.plan();
+        return iterator;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public int getEpoch() {
+        return this.epoch;
+    }
+
+    public void setEpoch(int epoch) {
+        this.epoch = epoch;
+        plan();
+    }
+
+    public long getPaddedTokens() {
+        return this.batchPlan.getPaddedTokens();
     }
 
     @Override
     public void setPreProcessor(MultiDataSetPreProcessor multiDataSetPreProcessor) {
-        this.preProcessor = preProcessor;
+        this.preProcessor = multiDataSetPreProcessor;
     }
 
     @Override
     public MultiDataSetPreProcessor getPreProcessor() {
-        return null;
+        return this.preProcessor;
     }
 
     @Override
@@ -173,11 +578,13 @@ public class Seq2SeqCustomDataSetIterator implements MultiDataSetIterator {
 
     @Override
     public boolean asyncSupported() {
-        return true;
+        // batches are views over reused buffers, they must be consumed before the next one is built
+        return false;
     }
 
     @Override
     public void reset() {
+        setEpoch(this.epoch + 1);
         this.currentBatch = 0;
         this.currentMacroBatch = 0;
     }
@@ -202,6 +609,7 @@ public class Seq2SeqCustomDataSetIterator implements MultiDataSetIterator {
     }
 
     public void setCurrentBatch(int currentBatch) {
+        cancelPrefetch();
         this.currentBatch = currentBatch;
         this.currentMacroBatch = getMacroBatchByCurrentBatch();
     }
@@ -0,0 +1,48 @@
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Floating point type of the activations and parameters. FP32 is the baseline, FP16 and BF16 halve
+ * the memory traffic of the LSTM and softmax layers where the backend supports them.
+ * Token ids stay FP32 in every mode, half floats only hold integers exactly up to 2048 (BF16: 256).
+ */
+public enum Seq2SeqPrecision {
+    FP32(DataType.FLOAT),
+    FP16(DataType.HALF),
+    BF16(DataType.BFLOAT16);
+
+    private final DataType dataType;
+
+    Seq2SeqPrecision(DataType dataType) {
+        this.dataType = dataType;
+    }
+
+    public DataType getDataType() {
+        return this.dataType;
+    }
+
+    public boolean isReduced() {
+        return this != FP32;
+    }
+
+    /**
+     * @return true if the backend can run a matrix product in this type
+     */
+    public boolean isSupported() {
+        try {
+            Nd4j.ones(this.dataType, 2, 2).mmul(Nd4j.ones(this.dataType, 2, 2));
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return this precision, or FP32 if the backend does not support it
+     */
+    public Seq2SeqPrecision orFallback() {
+        if (isSupported()) return this;
+        System.out.println(this + " is not supported by the ND4J backend, falling back to FP32");
+        return FP32;
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several {@link MappedTokenCorpus} files read as one corpus. Rows are numbered shard after shard,
+ * shard s holds rows getShardStarts()[s] until getShardStarts()[s + 1].
+ */
+public class ShardedTokenCorpus implements BaseTokenCorpus, Closeable {
+    private MappedTokenCorpus[] shards;
+    private int[] starts;
+
+    public ShardedTokenCorpus(List<File> files) throws IOException {
+        this.shards = new MappedTokenCorpus[files.size()];
+        this.starts = new int[files.size() + 1];
+        for (int s = 0; s < this.shards.length; s++) {
+            this.shards[s] = new MappedTokenCorpus(files.get(s));
+            long end = (long) this.starts[s] + this.shards[s].size();
+            if (end > Integer.MAX_VALUE) throw new IOException("Too many rows in " + files);
+            this.starts[s + 1] = (int) end;
+        }
+    }
+
+    /**
+     * Opens the shards written by {@link ShardedTokenCorpusWriter} under the given name.
+     */
+    public static ShardedTokenCorpus open(File directory, String name) throws IOException {
+        List<File> files = new ArrayList<>();
+        File file;
+        while ((file = ShardedTokenCorpusWriter.shardFile(directory, name, files.size())).exists()) {
+            files.add(file);
+        }
+        if (files.isEmpty()) throw new IOException("No " + name + " shards in " + directory);
+        return new ShardedTokenCorpus(files);
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    public int[] getShardStarts() {
+        return this.starts;
+    }
+
+    private int shardOf(int row) {
+        int shard = Arrays.binarySearch(this.starts, row);
+        // exact hits may be followed by empty shards
+        if (shard >= 0) {
+            while (this.starts[shard + 1] == row) ++shard;
+            return shard;
+        }
+        return -shard - 2;
+    }
+
+    @Override
+    public int size() {
+        return this.starts[this.shards.length];
+    }
+
+    @Override
+    public int length(int row) {
+        int shard = shardOf(row);
+        return this.shards[shard].length(row - this.starts[shard]);
+    }
+
+    @Override
+    public int get(int row, int position) {
+        int shard = shardOf(row);
+        return this.shards[shard].get(row - this.starts[shard], position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedTokenCorpus shard : this.shards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a corpus as numbered shards of rowsPerShard rows, name-00000.bin, name-00001.bin ...
+ * in one directory, each in the format of {@link TokenCorpusWriter}.
+ * New shards only replace the shard files on commit, closing without commit discards them.
+ */
+public class ShardedTokenCorpusWriter implements BaseTokenCorpusWriter {
+    private static final int ALL_ROWS = -1;
+
+    private File directory;
+    private String name;
+    private int rowsPerShard;
+    private int shards;
+    private int rows;
+    private TokenCorpusWriter shard;
+    // finished shards waiting for commit
+    private List<TokenCorpusWriter> pending = new ArrayList<>();
+
+    public ShardedTokenCorpusWriter(File directory, String name, int rowsPerShard) throws IOException {
+        this(directory, name, rowsPerShard, false);
+    }
+
+    /**
+     * @param append keep the existing shards and start a new shard after the last one,
+     *               existing shard files are never rewritten. Otherwise the existing shards
+     *               of name are deleted on commit, ShardedTokenCorpus.open would read them after the new ones.
+     */
+    public ShardedTokenCorpusWriter(File directory, String name, int rowsPerShard, boolean append) throws IOException {
+        this(directory, name, rowsPerShard, append ? ALL_ROWS : 0);
+    }
+
+    /**
+     * @param keepRows rows of the existing shards to keep, new shards start after them. The kept rows
+     *                 must end at a shard boundary, later shards, left by an append that was not recorded,
+     *                 are deleted on commit.
+     */
+    public ShardedTokenCorpusWriter(File directory, String name, int rowsPerShard, int keepRows) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create shard directory " + directory);
+        this.directory = directory;
+        this.name = name;
+        this.rowsPerShard = rowsPerShard;
+        File file;
+        while ((keepRows == ALL_ROWS || this.rows < keepRows)
+                && (file = shardFile(directory, name, this.shards)).exists()) {
+            try (MappedTokenCorpus shard = new MappedTokenCorpus(file)) {
+                this.rows += shard.size();
+            }
+            ++this.shards;
+        }
+        if (keepRows != ALL_ROWS && this.rows != keepRows)
+            throw new IOException("The " + name + " shards in " + directory + " do not end at row " + keepRows
+                    + " (" + this.rows + " rows in " + this.shards + " shards)");
+        if (shardFile(directory, name, this.shards).exists())
+            System.out.println("Dropping the " + name + " shards from " + this.shards + " on in " + directory);
+    }
+
+    public static File shardFile(File directory, String name, int shard) {
+        return new File(directory, String.format("%s-%05d.bin", name, shard));
+    }
+
+    @Override
+    public void append(int[] ids, int length) throws IOException {
+        if (this.shard == null || this.shard.getRows() == this.rowsPerShard) {
+            if (this.shard != null) {
+                this.shard.finish();
+                this.pending.add(this.shard);
+            }
+            this.shard = new TokenCorpusWriter(shardFile(this.directory, this.name, this.shards++));
+        }
+        this.shard.append(ids, length);
+        ++this.rows;
+    }
+
+    // rows of the whole corpus, existing shards included
+    @Override
+    public int getRows() {
+        return this.rows;
+    }
+
+    public int getShards() {
+        return this.shards;
+    }
+
+    /**
+     * Moves the new shards in place in order, then deletes the shards after them.
+     */
+    @Override
+    public void commit() throws IOException {
+        if (this.shard != null) {
+            this.shard.finish();
+            this.pending.add(this.shard);
+            this.shard = null;
+        }
+        for (TokenCorpusWriter writer : this.pending) {
+            writer.commit();
+        }
+        this.pending.clear();
+        File file;
+        for (int stale = this.shards; (file = shardFile(this.directory, this.name, stale)).exists(); stale++) {
+            if (!file.delete()) throw new IOException("Cannot delete old shard " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.shard != null) this.shard.close();
+        for (TokenCorpusWriter writer : this.pending) {
+            writer.close();
+        }
+    }
+}
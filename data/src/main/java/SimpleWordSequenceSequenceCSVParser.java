@@ -6,24 +6,40 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequenceParser {
+    private static final int CHUNK_SIZE = 1024;
+
     private CSVLineSequenceRecordReader recordReader;
     private BaseTextParser textParser;
     private FileSplit inputFile;
 
     private Map<String, Integer> wordIdDict;
     private Map<Integer, String> idWordDict;
+    private Map<String, Long> wordCounts;
     private int currentId;
+    private long minCount = 1;
+    private int maxSize = 0;
 
     private int featureMaxLength;
     private int labelMaxLength;
+    private Map<Integer, Long> featureLengthHistogram;
+    private Map<Integer, Long> labelLengthHistogram;
 
     private List<List<String>> featuresList;
     private List<List<String>> labelsList;
@@ -37,6 +53,9 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
 
         this.wordIdDict = new HashMap<>();
         this.idWordDict = new HashMap<>();
+        this.wordCounts = new HashMap<>();
+        this.featureLengthHistogram = new TreeMap<>();
+        this.labelLengthHistogram = new TreeMap<>();
         this.recordReader.initialize(inputFile);
 
         this.currentId = 0;
@@ -63,14 +82,296 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
             String text = writables.get(featureIndex).toString();
             String label = writables.get(labelIndex).toString();
             List<String> features = this.textParser.parse(text);
-            if(features.size() > this.featureMaxLength) this.featureMaxLength = features.size();
-            features.forEach(str -> addWord(str));
+            features.forEach(str -> countWord(str, 1));
             List<String> labels = this.textParser.parse(label);
-            if(labels.size() > this.featureMaxLength) this.labelMaxLength = labels.size();
-            labels.forEach(str -> addWord(str));
+            labels.forEach(str -> countWord(str, 1));
+            countLengths(features.size(), labels.size());
             featuresList.add(features);
             labelsList.add(labels);
         }
+        buildVocabulary();
+    }
+
+    /**
+     * Tokenizes chunks of records on a pool of threads. Every chunk counts its own words in the order
+     * they first appear, and chunks are merged in file order, so the dictionary is exactly the one
+     * run(featureIndex, labelIndex) would build, whatever the number of threads.
+     * The text parser must allow concurrent parse calls.
+     */
+    @Override
+    public void run(int featureIndex, int labelIndex, int threads) throws InterruptedException {
+        if (threads <= 1) {
+            run(featureIndex, labelIndex);
+            return;
+        }
+        try {
+            tokenizeChunks(featureIndex, labelIndex, threads, chunk -> {
+                countChunk(chunk);
+                this.featuresList.addAll(chunk.featuresList);
+                this.labelsList.addAll(chunk.labelsList);
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        buildVocabulary();
+    }
+
+    /**
+     * Two passes over the input that never hold more than a few chunks of sentences.
+     * The first pass builds the dictionary, the lengths and their histograms,
+     * the second one tokenizes again and streams the ids into binary corpus files.
+     */
+    @Override
+    public void runAndSaveStreaming(int featureIndex, int labelIndex, int threads,
+                                    File featureFile, File labelFile) throws IOException, InterruptedException {
+        try (TokenCorpusWriter featureWriter = new TokenCorpusWriter(featureFile);
+             TokenCorpusWriter labelWriter = new TokenCorpusWriter(labelFile)) {
+            runAndWrite(featureIndex, labelIndex, threads, featureWriter, labelWriter);
+            featureWriter.commit();
+            labelWriter.commit();
+        }
+    }
+
+    /**
+     * runAndSaveStreaming into shards of rowsPerShard rows, features-00000.bin and label-00000.bin
+     * onwards in the given directory, to be read back by ShardedTokenCorpus.
+     */
+    @Override
+    public void runAndSaveSharded(int featureIndex, int labelIndex, int threads,
+                                  File directory, int rowsPerShard) throws IOException, InterruptedException {
+        try (ShardedTokenCorpusWriter featureWriter = new ShardedTokenCorpusWriter(directory, "features", rowsPerShard);
+             ShardedTokenCorpusWriter labelWriter = new ShardedTokenCorpusWriter(directory, "label", rowsPerShard)) {
+            runAndWrite(featureIndex, labelIndex, threads, featureWriter, labelWriter);
+            featureWriter.commit();
+            labelWriter.commit();
+        }
+    }
+
+    private void runAndWrite(int featureIndex, int labelIndex, int threads,
+                             BaseTokenCorpusWriter featureWriter,
+                             BaseTokenCorpusWriter labelWriter) throws IOException, InterruptedException {
+        tokenizeChunks(featureIndex, labelIndex, threads, this::countChunk);
+        buildVocabulary();
+        setInputFile(this.inputFile);
+        int[] ids = new int[Math.max(this.featureMaxLength, this.labelMaxLength)];
+        tokenizeChunks(featureIndex, labelIndex, threads, chunk -> {
+            for (int i = 0; i < chunk.featuresList.size(); i++) {
+                writeIds(featureWriter, chunk.featuresList.get(i), ids);
+                writeIds(labelWriter, chunk.labelsList.get(i), ids);
+            }
+        });
+    }
+
+    /**
+     * Adds the files of the input that the manifest does not list yet to an existing binary corpus.
+     * Only those files are tokenized: the vocabulary is loaded from vocabularyFile, known words keep
+     * their ids and new words get the next free ones, within the vocabulary limits counted on the new
+     * files alone. The ids are appended to copies of featureFile and labelFile. The vocabulary is saved
+     * before the copies replace the corpus files, and the manifest last: rows past the ones the manifest
+     * records are dropped by the next append, which ingests their files again.
+     * Missing files start a new corpus, a corpus without manifest is refused.
+     */
+    @Override
+    public void appendAndSave(int featureIndex, int labelIndex, int threads,
+                              File featureFile, File labelFile,
+                              File vocabularyFile, File manifestFile) throws IOException, InterruptedException {
+        if (featureFile.exists() && !manifestFile.exists())
+            throw new IOException(featureFile + " was not built by appendAndSave, there is no manifest " + manifestFile);
+        CorpusManifest manifest = CorpusManifest.load(manifestFile);
+        List<File> sources = newSources(manifest);
+        if (sources.isEmpty()) return;
+        if (vocabularyFile.exists()) loadVocabulary(vocabularyFile);
+        try (TokenCorpusWriter featureWriter = new TokenCorpusWriter(featureFile, manifest.getRows());
+             TokenCorpusWriter labelWriter = new TokenCorpusWriter(labelFile, manifest.getRows())) {
+            appendAndCommit(featureIndex, labelIndex, threads, sources, vocabularyFile, manifest,
+                    featureWriter, labelWriter);
+        }
+        // saved last, an interrupted append is ingested again rather than skipped
+        manifest.save(manifestFile);
+    }
+
+    /**
+     * appendAndSave into new shards after the existing ones in directory.
+     */
+    @Override
+    public void appendAndSaveSharded(int featureIndex, int labelIndex, int threads,
+                                     File directory, int rowsPerShard,
+                                     File vocabularyFile, File manifestFile) throws IOException, InterruptedException {
+        if (ShardedTokenCorpusWriter.shardFile(directory, "features", 0).exists() && !manifestFile.exists())
+            throw new IOException(directory + " was not built by appendAndSaveSharded, there is no manifest " + manifestFile);
+        CorpusManifest manifest = CorpusManifest.load(manifestFile);
+        List<File> sources = newSources(manifest);
+        if (sources.isEmpty()) return;
+        if (vocabularyFile.exists()) loadVocabulary(vocabularyFile);
+        try (ShardedTokenCorpusWriter featureWriter =
+                     new ShardedTokenCorpusWriter(directory, "features", rowsPerShard, manifest.getRows());
+             ShardedTokenCorpusWriter labelWriter =
+                     new ShardedTokenCorpusWriter(directory, "label", rowsPerShard, manifest.getRows())) {
+            appendAndCommit(featureIndex, labelIndex, threads, sources, vocabularyFile, manifest,
+                    featureWriter, labelWriter);
+        }
+        manifest.save(manifestFile);
+    }
+
+    /**
+     * Builds featureFile, labelFile, the vocabulary and the manifest from all the files of the input,
+     * as appendAndSave would from an empty corpus, so that later appends can follow.
+     * Existing files are only replaced once the new corpus is complete.
+     */
+    @Override
+    public void buildAndSave(int featureIndex, int labelIndex, int threads,
+                             File featureFile, File labelFile,
+                             File vocabularyFile, File manifestFile) throws IOException, InterruptedException {
+        CorpusManifest manifest = new CorpusManifest();
+        List<File> sources = newSources(manifest);
+        try (TokenCorpusWriter featureWriter = new TokenCorpusWriter(featureFile);
+             TokenCorpusWriter labelWriter = new TokenCorpusWriter(labelFile)) {
+            appendAndCommit(featureIndex, labelIndex, threads, sources, vocabularyFile, manifest,
+                    featureWriter, labelWriter);
+        }
+        manifest.save(manifestFile);
+    }
+
+    // input files missing from the manifest, in path order so that new ids do not depend on listing order
+    private List<File> newSources(CorpusManifest manifest) {
+        List<File> sources = new ArrayList<>();
+        for (URI location : this.inputFile.locations()) {
+            File source = new File(location);
+            if (!manifest.contains(source)) {
+                sources.add(source);
+            } else if (manifest.isModified(source)) {
+                System.out.println("Skipping " + source + ", it changed after it was ingested");
+            }
+        }
+        sources.sort(Comparator.comparing(File::getPath));
+        System.out.println(sources.size() + " new files, " + manifest.size() + " already ingested");
+        return sources;
+    }
+
+    // the vocabulary is saved before the corpus, committed rows never hold ids it does not know
+    private void appendAndCommit(int featureIndex, int labelIndex, int threads, List<File> sources,
+                                 File vocabularyFile, CorpusManifest manifest,
+                                 BaseTokenCorpusWriter featureWriter,
+                                 BaseTokenCorpusWriter labelWriter) throws IOException, InterruptedException {
+        appendSources(featureIndex, labelIndex, threads, sources, vocabularyFile, manifest, featureWriter, labelWriter);
+        saveVocabulary(vocabularyFile);
+        featureWriter.commit();
+        labelWriter.commit();
+    }
+
+    private void appendSources(int featureIndex, int labelIndex, int threads, List<File> sources,
+                               File vocabularyFile, CorpusManifest manifest,
+                               BaseTokenCorpusWriter featureWriter,
+                               BaseTokenCorpusWriter labelWriter) throws IOException, InterruptedException {
+        FileSplit input = this.inputFile;
+        int known = this.currentId;
+        for (File source : sources) {
+            setInputFile(new FileSplit(source));
+            tokenizeChunks(featureIndex, labelIndex, threads, this::countChunk);
+        }
+        buildVocabulary(known);
+
+        int[] ids = new int[Math.max(this.featureMaxLength, this.labelMaxLength)];
+        for (File source : sources) {
+            int firstRow = featureWriter.getRows();
+            setInputFile(new FileSplit(source));
+            tokenizeChunks(featureIndex, labelIndex, threads, chunk -> {
+                for (int i = 0; i < chunk.featuresList.size(); i++) {
+                    writeIds(featureWriter, chunk.featuresList.get(i), ids);
+                    writeIds(labelWriter, chunk.labelsList.get(i), ids);
+                }
+            });
+            manifest.add(source, firstRow, featureWriter.getRows() - firstRow);
+        }
+        setInputFile(input);
+        System.out.println("Appended " + sources.size() + " files, " + (getDictSize() - known) + " new words");
+    }
+
+    private void writeIds(BaseTokenCorpusWriter writer, List<String> sentence, int[] ids) throws IOException {
+        int unknown = this.wordIdDict.get("<unk>");
+        int i = 0;
+        for (String str : sentence) {
+            ids[i++] = this.wordIdDict.getOrDefault(str, unknown);
+        }
+        writer.append(ids, sentence.size());
+    }
+
+    private void tokenizeChunks(int featureIndex, int labelIndex, int threads,
+                                ChunkConsumer consumer) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        ArrayDeque<Future<TokenizedChunk>> pending = new ArrayDeque<>();
+        try {
+            List<String[]> records = new ArrayList<>(CHUNK_SIZE);
+            while (this.recordReader.hasNext()) {
+                List<Writable> writables = this.recordReader.next();
+                records.add(new String[]{
+                        writables.get(featureIndex).toString(),
+                        writables.get(labelIndex).toString()});
+                if (records.size() == CHUNK_SIZE) {
+                    final List<String[]> chunk = records;
+                    pending.add(pool.submit(() -> tokenize(chunk)));
+                    records = new ArrayList<>(CHUNK_SIZE);
+                    // bound the records held in memory by consuming finished chunks
+                    while (pending.size() > threads * 4) consumer.accept(pending.poll().get());
+                }
+            }
+            if (!records.isEmpty()) {
+                final List<String[]> chunk = records;
+                pending.add(pool.submit(() -> tokenize(chunk)));
+            }
+            while (!pending.isEmpty()) consumer.accept(pending.poll().get());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to tokenize " + this.inputFile, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private TokenizedChunk tokenize(List<String[]> records) {
+        TokenizedChunk chunk = new TokenizedChunk(records.size());
+        for (String[] record : records) {
+            List<String> features = this.textParser.parse(record[0]);
+            List<String> labels = this.textParser.parse(record[1]);
+            chunk.add(features, labels);
+        }
+        return chunk;
+    }
+
+    private void countChunk(TokenizedChunk chunk) {
+        chunk.wordCounts.forEach((word, count) -> countWord(word, count));
+        for (int i = 0; i < chunk.featuresList.size(); i++) {
+            countLengths(chunk.featuresList.get(i).size(), chunk.labelsList.get(i).size());
+        }
+    }
+
+    private void countLengths(int featureLength, int labelLength) {
+        if (featureLength > this.featureMaxLength) this.featureMaxLength = featureLength;
+        if (labelLength > this.labelMaxLength) this.labelMaxLength = labelLength;
+        this.featureLengthHistogram.merge(featureLength, 1L, Long::sum);
+        this.labelLengthHistogram.merge(labelLength, 1L, Long::sum);
+    }
+
+    private interface ChunkConsumer {
+        void accept(TokenizedChunk chunk) throws IOException;
+    }
+
+    // tokens of a run of consecutive records, with its words counted in order of first appearance
+    private static class TokenizedChunk {
+        private List<List<String>> featuresList;
+        private List<List<String>> labelsList;
+        private Map<String, Integer> wordCounts = new LinkedHashMap<>();
+
+        private TokenizedChunk(int size) {
+            this.featuresList = new ArrayList<>(size);
+            this.labelsList = new ArrayList<>(size);
+        }
+
+        private void add(List<String> features, List<String> labels) {
+            features.forEach(str -> wordCounts.merge(str, 1, Integer::sum));
+            labels.forEach(str -> wordCounts.merge(str, 1, Integer::sum));
+            this.featuresList.add(features);
+            this.labelsList.add(labels);
+        }
     }
 
     @Override
@@ -89,6 +390,7 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
     }
 
     private void saveOneSide(AtomicBoolean notfirst, PrintStream labelStream, List<List<String>> labelsList) {
+        int unknown = wordIdDict.get("<unk>");
         labelsList.forEach(labels -> {
             labelStream.println();
             notfirst.set(false);
@@ -96,11 +398,28 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
                 if (notfirst.getAndSet(true)) {
                     labelStream.print(',');
                 }
-                labelStream.print(wordIdDict.get(str));
+                labelStream.print(wordIdDict.getOrDefault(str, unknown));
             });
         });
     }
 
+    @Override
+    public void saveBinary(File featureFile, File labelFile) throws IOException {
+        saveOneSideBinary(featureFile, featuresList);
+        saveOneSideBinary(labelFile, labelsList);
+    }
+
+    private void saveOneSideBinary(File file, List<List<String>> sentences) throws IOException {
+        try (TokenCorpusWriter writer = new TokenCorpusWriter(file)) {
+            int[] ids = new int[Math.max(this.featureMaxLength, this.labelMaxLength)];
+            for (List<String> sentence : sentences) {
+                if (sentence.size() > ids.length) ids = new int[sentence.size()];
+                writeIds(writer, sentence, ids);
+            }
+            writer.commit();
+        }
+    }
+
     @Override
     public void runAndSave(int featureIndex, int labelIndex, File featureFile, File labelFile) throws FileNotFoundException {
         this.run(featureIndex, labelIndex);
@@ -124,6 +443,17 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
         this.currentId = wordIdDict.size();
     }
 
+    @Override
+    public void saveVocabulary(File vocabularyFile) throws IOException {
+        Vocabulary.of(this.idWordDict).save(vocabularyFile);
+    }
+
+    @Override
+    public void loadVocabulary(File vocabularyFile) throws IOException {
+        Vocabulary vocabulary = Vocabulary.load(vocabularyFile);
+        setwordIdDict(vocabulary.toWordIdDict(), vocabulary.toIdWordDict());
+    }
+
     @Override
     public int getFeatureMaxLength() {
         return this.featureMaxLength;
@@ -168,6 +498,118 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
         }
     }
 
+    private void countWord(String word, long count) {
+        addWord(word);
+        this.wordCounts.merge(word, count, Long::sum);
+    }
+
+    /**
+     * Limits the vocabulary built by the next run: words seen fewer than minCount times are dropped,
+     * then only the most frequent ones are kept so that the dictionary, <unk>, <eos> and <go> included,
+     * holds at most maxSize words. Dropped words map to <unk>. maxSize 0 means no limit.
+     */
+    @Override
+    public void setVocabularyLimits(long minCount, int maxSize) {
+        this.minCount = minCount;
+        this.maxSize = maxSize;
+    }
+
+    private void buildVocabulary() {
+        buildVocabulary(3);
+    }
+
+    /**
+     * Reassigns the ids from fixed onwards after counting, the words below fixed are kept as they are.
+     * Kept words are the most frequent ones, ties broken by first appearance, and keep their order
+     * of first appearance, so without limits the ids do not change.
+     */
+    private void buildVocabulary(int fixed) {
+        if (this.minCount <= 1 && this.maxSize <= 0) return;
+        List<String> candidates = new ArrayList<>();
+        for (int id = fixed; id < this.currentId; id++) {
+            String word = this.idWordDict.get(id);
+            if (this.wordCounts.getOrDefault(word, 0L) >= this.minCount) candidates.add(word);
+        }
+        if (this.maxSize > 0 && candidates.size() > this.maxSize - fixed) {
+            Map<String, Integer> order = new HashMap<>();
+            for (String word : candidates) {
+                order.put(word, this.wordIdDict.get(word));
+            }
+            candidates.sort((a, b) -> {
+                int compare = Long.compare(this.wordCounts.get(b), this.wordCounts.get(a));
+                return compare != 0 ? compare : Integer.compare(order.get(a), order.get(b));
+            });
+            candidates = new ArrayList<>(candidates.subList(0, Math.max(0, this.maxSize - fixed)));
+            candidates.sort((a, b) -> Integer.compare(order.get(a), order.get(b)));
+        }
+
+        Map<Integer, String> previous = this.idWordDict;
+        this.wordIdDict = new HashMap<>();
+        this.idWordDict = new HashMap<>();
+        this.currentId = 0;
+        for (int id = 0; id < fixed; id++) {
+            addWord(previous.get(id));
+        }
+        candidates.forEach(this::addWord);
+    }
+
+    /**
+     * @return the fraction of the counted tokens that are in the dictionary
+     */
+    public double getCoverage() {
+        long total = 0;
+        long covered = 0;
+        for (Map.Entry<String, Long> entry : this.wordCounts.entrySet()) {
+            total += entry.getValue();
+            if (this.wordIdDict.containsKey(entry.getKey())) covered += entry.getValue();
+        }
+        return total == 0 ? 1.0 : (double) covered / total;
+    }
+
+    /**
+     * @return the coverage a dictionary of the size most frequent words would reach, specials included
+     */
+    public double getCoverage(int size) {
+        long[] counts = this.wordCounts.values().stream()
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+        long total = 0;
+        long covered = 0;
+        for (int i = counts.length - 1; i >= 0; i--) {
+            total += counts[i];
+            if (counts.length - i <= size - 3) covered += counts[i];
+        }
+        return total == 0 ? 1.0 : (double) covered / total;
+    }
+
+    public String getVocabularyReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Distinct words ").append(this.wordCounts.size())
+                .append(", dictionary size ").append(getDictSize())
+                .append(" (min count ").append(this.minCount)
+                .append(", max size ").append(this.maxSize).append(")\n");
+        report.append(String.format("Coverage %.4f, OOV rate %.4f\n", getCoverage(), 1.0 - getCoverage()));
+        for (int size : new int[]{1000, 5000, 10000, 20000, 50000}) {
+            if (size - 3 >= this.wordCounts.size()) break;
+            report.append(String.format("  top %d: coverage %.4f\n", size, getCoverage(size)));
+        }
+        return report.toString();
+    }
+
+    public Map<String, Long> getWordCounts() {
+        return this.wordCounts;
+    }
+
+    // sentence length -> number of sentences
+    public Map<Integer, Long> getFeatureLengthHistogram() {
+        return this.featureLengthHistogram;
+    }
+
+    public Map<Integer, Long> getLabelLengthHistogram() {
+        return this.labelLengthHistogram;
+    }
+
     @Override
     public List<Integer> text2vecs(String text, String unknown) {
         return this.textParser.parse(text)
@@ -176,7 +618,7 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
                     if (wordIdDict.containsKey(str)) {
                         return wordIdDict.get(str);
                     } else {
-                        return wordIdDict.get("<unk>");
+                        return wordIdDict.get(unknown);
                     }
                 })
                 .collect(Collectors.toList());
@@ -184,15 +626,28 @@ public class SimpleWordSequenceSequenceCSVParser implements BaseWordSequencePars
 
     public static void main (String... args) throws IOException, InterruptedException {
         System.out.print("Start!");
-        BaseWordSequenceParser sequenceParser =
+        SimpleWordSequenceSequenceCSVParser sequenceParser =
                 new SimpleWordSequenceSequenceCSVParser(
                                 new CSVLineSequenceRecordReader(0,','),
-                                new SimpleJapaneseTextParser(),
+                                new PooledJapaneseTextParser(),
                                 new FileSplit(new File("resources/japanese-corpus/usually"))
                 );
-        sequenceParser.runAndSave(0,1,
-                new File("resources/features.csv"),
-                new File("resources/label.csv"));
+        sequenceParser.setVocabularyLimits(1, 0);
+        File featureFile = new File("resources/features.bin");
+        File labelFile = new File("resources/label.bin");
+        File vocabularyFile = new File("resources/vocabulary.bin");
+        File manifestFile = new File("resources/manifest.tsv");
+        if (args.length > 0 && args[0].equals("--append")) {
+            // daily refresh: only the files not in the manifest are tokenized
+            sequenceParser.appendAndSave(0, 1, Runtime.getRuntime().availableProcessors(),
+                    featureFile, labelFile, vocabularyFile, manifestFile);
+            System.out.println("Finish! DictSize" + sequenceParser.getDictSize());
+            return;
+        }
+        // with a manifest, so that --append can refresh it later
+        sequenceParser.buildAndSave(0, 1, Runtime.getRuntime().availableProcessors(),
+                featureFile, labelFile, vocabularyFile, manifestFile);
+        System.out.print(sequenceParser.getVocabularyReport());
         System.out.print("Finish!");
         System.out.println("Information: \n" +
                 "DictSize" + sequenceParser.getDictSize() +
@@ -0,0 +1,232 @@
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The topK most probable tokens of a teacher model at every decoder step of every corpus row,
+ * memory-mapped and read in place like {@link MappedTokenCorpus}.
+ *
+ * Layout, little-endian:
+ *   header   int magic, int version, int rows, int rowSize, int topK, int reserved, long teacherChecksum,
+ *            long corpusChecksum
+ *   records  rows * rowSize * topK (int id, float probability), the decoder steps of a row in order
+ *
+ * The cache is keyed by the teacher and the corpus checksums, so a rebuilt corpus of the same size
+ * does not reuse it. The magic is only written once the cache is complete. Steps the teacher did
+ * not score have probabilities 0 and keep their hard label.
+ */
+public class TeacherTopKCache implements Closeable {
+    public static final int MAGIC = 0x53325354; // "S2ST"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 40;
+    private static final int ENTRY_SIZE = Integer.BYTES + Float.BYTES;
+    // whole rows per mapped segment, at most 1GiB
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    private RandomAccessFile file;
+    private int rows;
+    private int rowSize;
+    private int topK;
+    private long teacherChecksum;
+    private long corpusChecksum;
+    private int rowsPerSegment;
+    private ByteBuffer[] segments;
+
+    private TeacherTopKCache(File cacheFile) throws IOException {
+        this.file = new RandomAccessFile(cacheFile, "r");
+        FileChannel channel = this.file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0)
+                throw new IOException("Truncated teacher cache header: " + cacheFile);
+        }
+        header.flip();
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not a complete teacher cache: " + cacheFile);
+        int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported teacher cache version " + version + ": " + cacheFile);
+        this.rows = header.getInt();
+        this.rowSize = header.getInt();
+        this.topK = header.getInt();
+        header.getInt();
+        this.teacherChecksum = header.getLong();
+        this.corpusChecksum = header.getLong();
+
+        int rowBytes = rowBytes(this.rowSize, this.topK);
+        this.rowsPerSegment = Math.max(1, SEGMENT_BYTES / rowBytes);
+        int segmentCount = (this.rows + this.rowsPerSegment - 1) / this.rowsPerSegment;
+        this.segments = new ByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long first = (long) s * this.rowsPerSegment;
+            long count = Math.min(this.rowsPerSegment, this.rows - first);
+            this.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + first * rowBytes, count * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @return the cache in cacheFile if it is complete and matches the arguments, null otherwise
+     */
+    public static TeacherTopKCache open(File cacheFile, long teacherChecksum, long corpusChecksum,
+                                        int rows, int rowSize, int topK) throws IOException {
+        if (!cacheFile.exists()) return null;
+        TeacherTopKCache cache;
+        try {
+            cache = new TeacherTopKCache(cacheFile);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+        if (cache.teacherChecksum != teacherChecksum || cache.corpusChecksum != corpusChecksum || cache.rows != rows
+                || cache.rowSize != rowSize || cache.topK != topK) {
+            System.out.println("Teacher cache " + cacheFile + " was built for another teacher or corpus");
+            cache.close();
+            return null;
+        }
+        return cache;
+    }
+
+    private static int rowBytes(int rowSize, int topK) {
+        return rowSize * topK * ENTRY_SIZE;
+    }
+
+    public int getRowSize() {
+        return this.rowSize;
+    }
+
+    public int getTopK() {
+        return this.topK;
+    }
+
+    private int position(int row, int step, int k) {
+        return ((row % this.rowsPerSegment) * this.rowSize + step) * this.topK * ENTRY_SIZE + k * ENTRY_SIZE;
+    }
+
+    public int getId(int row, int step, int k) {
+        return this.segments[row / this.rowsPerSegment].getInt(position(row, step, k));
+    }
+
+    public float getProbability(int row, int step, int k) {
+        return this.segments[row / this.rowsPerSegment].getFloat(position(row, step, k) + Integer.BYTES);
+    }
+
+    /**
+     * Mixes one-hot labels, [count, dictSize, T], with the cached teacher distributions of
+     * rows[offset .. offset + count): alpha * softened teacher + (1 - alpha) * hard label at every step
+     * the teacher scored. The teacher probabilities are softened with temperature, p^(1 / temperature),
+     * and renormalized over the topK tokens.
+     * @return a new array of the type of labels
+     */
+    public INDArray mix(INDArray labels, int[] rows, int offset, int count, double temperature, double alpha) {
+        int length = (int) labels.size(2);
+        // only the hard label and the topK teacher entries of a step change
+        INDArray mixed = labels.dup();
+        INDArray hard = Nd4j.argMax(labels, 1);
+        double[] weights = new double[this.topK];
+        for (int j = 0; j < count; j++) {
+            int row = rows[offset + j];
+            for (int t = 0; t < Math.min(length, this.rowSize); t++) {
+                double sum = 0;
+                for (int k = 0; k < this.topK; k++) {
+                    float probability = getProbability(row, t, k);
+                    weights[k] = probability > 0 ? Math.pow(probability, 1.0 / temperature) : 0.0;
+                    sum += weights[k];
+                }
+                if (sum == 0) continue;
+                long[] at = {j, hard.getInt(j, t), t};
+                mixed.putScalar(at, mixed.getDouble(at) * (1 - alpha));
+                for (int k = 0; k < this.topK; k++) {
+                    if (weights[k] == 0) continue;
+                    at = new long[]{j, getId(row, t, k), t};
+                    mixed.putScalar(at, mixed.getDouble(at) + alpha * weights[k] / sum);
+                }
+            }
+        }
+        return mixed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+    /**
+     * Writes a cache of rows corpus rows, row by row in any order. The cache is only valid after finish.
+     */
+    public static class Writer implements Closeable {
+        private RandomAccessFile output;
+        private int rows;
+        private int rowSize;
+        private int topK;
+        private long teacherChecksum;
+        private long corpusChecksum;
+        private ByteBuffer record;
+
+        public Writer(File cacheFile, long teacherChecksum, long corpusChecksum,
+                      int rows, int rowSize, int topK) throws IOException {
+            this.rows = rows;
+            this.rowSize = rowSize;
+            this.topK = topK;
+            this.teacherChecksum = teacherChecksum;
+            this.corpusChecksum = corpusChecksum;
+            this.record = ByteBuffer.allocate(rowBytes(rowSize, topK)).order(ByteOrder.LITTLE_ENDIAN);
+            this.output = new RandomAccessFile(cacheFile, "rw");
+            this.output.setLength(0);
+            // zero magic until finish
+            this.output.setLength(HEADER_SIZE + (long) rows * this.record.capacity());
+        }
+
+        /**
+         * @param ids [rowSize * topK] token ids, step by step
+         * @param probabilities teacher probabilities of ids, 0 for steps that were not scored
+         */
+        public void putRow(int row, int[] ids, float[] probabilities) throws IOException {
+            this.record.clear();
+            for (int i = 0; i < this.rowSize * this.topK; i++) {
+                this.record.putInt(ids[i]).putFloat(probabilities[i]);
+            }
+            this.record.flip();
+            long position = HEADER_SIZE + (long) row * this.record.capacity();
+            FileChannel channel = this.output.getChannel();
+            while (this.record.hasRemaining()) {
+                position += channel.write(this.record, position);
+            }
+        }
+
+        /**
+         * Marks the cache complete, a cache closed without finish stays invalid.
+         */
+        public void finish() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(this.rows);
+            header.putInt(this.rowSize);
+            header.putInt(this.topK);
+            header.putInt(0);
+            header.putLong(this.teacherChecksum);
+            header.putLong(this.corpusChecksum);
+            header.flip();
+            FileChannel channel = this.output.getChannel();
+            channel.force(false);
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.output.close();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Streams token id sequences into the binary corpus format read by {@link MappedTokenCorpus}.
+ *
+ * Layout (little endian):
+ *   header  : magic(int) version(int) rows(int) reserved(int) tokens(long) indexPosition(long)
+ *   tokens  : int32 * tokens
+ *   index   : int64 * (rows + 1), cumulative token offsets of every row
+ *
+ * Row offsets are spilled to a temporary file while writing, so memory use does not depend on the corpus size.
+ * Rows are written to file.tmp and only replace file on commit, closing without commit discards them,
+ * so an interrupted write never touches the existing corpus. Appending copies the rows to keep first.
+ */
+public class TokenCorpusWriter implements BaseTokenCorpusWriter {
+    public static final int MAGIC = 0x53325343; // "S2SC"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int ALL_ROWS = -1;
+
+    private File file;
+    private File tempFile;
+    private File indexFile;
+    private RandomAccessFile output;
+    private RandomAccessFile index;
+    private ByteBuffer tokenBuffer;
+    private ByteBuffer indexBuffer;
+    private boolean finished;
+    private boolean committed;
+
+    private int rows;
+    private long tokens;
+
+    public TokenCorpusWriter(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param append keep the rows of an existing corpus file and write new rows after them
+     */
+    public TokenCorpusWriter(File file, boolean append) throws IOException {
+        this(file, append ? ALL_ROWS : 0);
+    }
+
+    /**
+     * @param keepRows rows of the existing corpus file to keep, new rows are written after them.
+     *                 Rows after keepRows, left by an append that was not recorded, are dropped.
+     *                 A file with fewer rows is an error.
+     */
+    public TokenCorpusWriter(File file, int keepRows) throws IOException {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.indexFile = File.createTempFile(file.getName(), ".index", file.getAbsoluteFile().getParentFile());
+        this.tokenBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.indexBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            this.output = new RandomAccessFile(this.tempFile, "rw");
+            this.index = new RandomAccessFile(this.indexFile, "rw");
+            this.output.setLength(0);
+            this.output.getChannel().position(HEADER_SIZE);
+            if (keepRows != 0 && file.exists() && file.length() > 0) {
+                copyRows(keepRows);
+            } else if (keepRows > 0) {
+                throw new IOException(file + " is missing, " + keepRows + " rows expected");
+            } else {
+                this.rows = 0;
+                this.tokens = 0;
+                putOffset(0);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // copies the first keepRows rows of the existing corpus and their index to the new files
+    private void copyRows(int keepRows) throws IOException {
+        try (RandomAccessFile existing = new RandomAccessFile(this.file, "r")) {
+            FileChannel channel = existing.getChannel();
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a token corpus: " + this.file);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported token corpus version " + version + ": " + this.file);
+            int rows = header.getInt();
+            header.getInt();
+            long tokens = header.getLong();
+            long indexPosition = header.getLong();
+
+            if (keepRows == ALL_ROWS) keepRows = rows;
+            if (rows < keepRows)
+                throw new IOException(this.file + " has " + rows + " rows, " + keepRows + " expected");
+            if (rows > keepRows)
+                System.out.println("Dropping " + (rows - keepRows) + " unrecorded rows of " + this.file);
+            this.rows = keepRows;
+            this.tokens = keepRows == rows ? tokens
+                    : read(channel, indexPosition + (long) keepRows * Long.BYTES, Long.BYTES).getLong();
+            transfer(channel, HEADER_SIZE, this.tokens * Integer.BYTES, this.output.getChannel());
+            transfer(channel, indexPosition, (keepRows + 1L) * Long.BYTES, this.index.getChannel());
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Truncated token corpus");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // appends count bytes of source from position at the current position of target
+    private static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        if (position + count > source.size()) throw new IOException("Truncated token corpus");
+        long copied = 0;
+        while (copied < count) {
+            copied += source.transferTo(position + copied, count - copied, target);
+        }
+    }
+
+    public void append(List<Integer> ids) throws IOException {
+        for (Integer id : ids) {
+            putToken(id);
+        }
+        endRow();
+    }
+
+    @Override
+    public void append(int[] ids, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            putToken(ids[i]);
+        }
+        endRow();
+    }
+
+    @Override
+    public int getRows() {
+        return this.rows;
+    }
+
+    public long getTokens() {
+        return this.tokens;
+    }
+
+    private void putToken(int id) throws IOException {
+        if (!tokenBuffer.hasRemaining()) flush(tokenBuffer, output.getChannel());
+        tokenBuffer.putInt(id);
+        ++tokens;
+    }
+
+    private void endRow() throws IOException {
+        ++rows;
+        putOffset(tokens);
+    }
+
+    private void putOffset(long offset) throws IOException {
+        if (!indexBuffer.hasRemaining()) flush(indexBuffer, index.getChannel());
+        indexBuffer.putLong(offset);
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Completes the corpus in file.tmp and releases the open files, no rows can be added after it.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        FileChannel channel = output.getChannel();
+        flush(tokenBuffer, channel);
+        flush(indexBuffer, index.getChannel());
+
+        long indexPosition = channel.position();
+        FileChannel indexChannel = index.getChannel();
+        transfer(indexChannel, 0, indexChannel.size(), channel);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(rows);
+        header.putInt(0);
+        header.putLong(tokens);
+        header.putLong(indexPosition);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+        output.close();
+        index.close();
+        indexFile.delete();
+        finished = true;
+    }
+
+    /**
+     * Finishes the corpus and moves it over file, it is only visible to readers from here on.
+     */
+    @Override
+    public void commit() throws IOException {
+        finish();
+        Files.move(tempFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Discards the rows unless they were committed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (output != null) output.close();
+            if (index != null) index.close();
+        } finally {
+            indexFile.delete();
+            if (!committed) tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import org.bytedeco.javacpp.Pointer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of a training run. Recording is a few LongAdder increments, so it is cheap enough
+ * for every batch and safe from prefetch and trainer threads.
+ *
+ * Batch build time is spent on whichever thread builds the batch, ETL wait is the part of it the
+ * training thread actually waited for. Fit time is measured around fit and includes that wait,
+ * compute time excludes it.
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+    private final long startNanos = System.nanoTime();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder examples = new LongAdder();
+    private final LongAdder realTokens = new LongAdder();
+    private final LongAdder paddedTokens = new LongAdder();
+    private final LongAdder batchBuildNanos = new LongAdder();
+    private final LongAdder etlWaitNanos = new LongAdder();
+    private final LongAdder fitNanos = new LongAdder();
+    private final LongAdder checkpoints = new LongAdder();
+    private final LongAdder checkpointSnapshotNanos = new LongAdder();
+    private final LongAdder checkpointWriteNanos = new LongAdder();
+
+    public void recordBatch(int examples, long realTokens, long paddedTokens, long buildNanos) {
+        this.batches.increment();
+        this.examples.add(examples);
+        this.realTokens.add(realTokens);
+        this.paddedTokens.add(paddedTokens);
+        this.batchBuildNanos.add(buildNanos);
+    }
+
+    public void recordEtlWait(long nanos) {
+        this.etlWaitNanos.add(nanos);
+    }
+
+    public void recordFit(long nanos) {
+        this.fitNanos.add(nanos);
+    }
+
+    public void recordCheckpoint(long snapshotNanos, long writeNanos) {
+        this.checkpoints.increment();
+        this.checkpointSnapshotNanos.add(snapshotNanos);
+        this.checkpointWriteNanos.add(writeNanos);
+    }
+
+    @Override
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    @Override
+    public long getExamples() {
+        return this.examples.sum();
+    }
+
+    @Override
+    public long getRealTokens() {
+        return this.realTokens.sum();
+    }
+
+    @Override
+    public long getPaddedTokens() {
+        return this.paddedTokens.sum();
+    }
+
+    @Override
+    public double getBatchBuildSeconds() {
+        return this.batchBuildNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getEtlWaitSeconds() {
+        return this.etlWaitNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getFitSeconds() {
+        return this.fitNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getComputeSeconds() {
+        return Math.max(0, getFitSeconds() - getEtlWaitSeconds());
+    }
+
+    @Override
+    public long getCheckpoints() {
+        return this.checkpoints.sum();
+    }
+
+    @Override
+    public double getCheckpointSnapshotSeconds() {
+        return this.checkpointSnapshotNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getCheckpointWriteSeconds() {
+        return this.checkpointWriteNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getUptimeSeconds() {
+        return (System.nanoTime() - this.startNanos) / 1e9;
+    }
+
+    @Override
+    public double getExamplesPerSecond() {
+        return getExamples() / getUptimeSeconds();
+    }
+
+    @Override
+    public double getRealTokensPerSecond() {
+        return getRealTokens() / getUptimeSeconds();
+    }
+
+    @Override
+    public double getPaddedTokensPerSecond() {
+        return getPaddedTokens() / getUptimeSeconds();
+    }
+
+    @Override
+    public long getHeapUsedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return Pointer.totalBytes();
+    }
+
+    /**
+     * Every metric by its snake_case name, counters first.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("batches_total", getBatches());
+        metrics.put("examples_total", getExamples());
+        metrics.put("real_tokens_total", getRealTokens());
+        metrics.put("padded_tokens_total", getPaddedTokens());
+        metrics.put("checkpoints_total", getCheckpoints());
+        metrics.put("batch_build_seconds_total", getBatchBuildSeconds());
+        metrics.put("etl_wait_seconds_total", getEtlWaitSeconds());
+        metrics.put("fit_seconds_total", getFitSeconds());
+        metrics.put("compute_seconds_total", getComputeSeconds());
+        metrics.put("checkpoint_snapshot_seconds_total", getCheckpointSnapshotSeconds());
+        metrics.put("checkpoint_write_seconds_total", getCheckpointWriteSeconds());
+        metrics.put("examples_per_second", getExamplesPerSecond());
+        metrics.put("real_tokens_per_second", getRealTokensPerSecond());
+        metrics.put("padded_tokens_per_second", getPaddedTokensPerSecond());
+        metrics.put("heap_used_bytes", getHeapUsedBytes());
+        metrics.put("off_heap_bytes", getOffHeapBytes());
+        metrics.put("uptime_seconds", getUptimeSeconds());
+        return metrics;
+    }
+
+    /**
+     * Prometheus text exposition format, every metric prefixed with seq2seq_.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Number> metric : snapshot().entrySet()) {
+            String name = "seq2seq_" + metric.getKey();
+            String type = metric.getKey().endsWith("_total") ? "counter" : "gauge";
+            text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            text.append(name).append(' ').append(metric.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * One key=value line for logs.
+     */
+    public String toLogLine() {
+        StringBuilder line = new StringBuilder("metrics");
+        for (Map.Entry<String, Number> metric : snapshot().entrySet()) {
+            line.append(' ').append(metric.getKey()).append('=');
+            if (metric.getValue() instanceof Double) line.append(String.format("%.3f", metric.getValue().doubleValue()));
+            else line.append(metric.getValue());
+        }
+        return line.toString();
+    }
+
+    public void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("seq2seq:type=TrainingMetrics,name=" + name);
+        if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        server.registerMBean(this, objectName);
+    }
+}
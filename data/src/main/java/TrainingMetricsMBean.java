@@ -0,0 +1,22 @@
+/**
+ * JMX view of {@link TrainingMetrics}.
+ */
+public interface TrainingMetricsMBean {
+    long getBatches();
+    long getExamples();
+    long getRealTokens();
+    long getPaddedTokens();
+    double getBatchBuildSeconds();
+    double getEtlWaitSeconds();
+    double getFitSeconds();
+    double getComputeSeconds();
+    long getCheckpoints();
+    double getCheckpointSnapshotSeconds();
+    double getCheckpointWriteSeconds();
+    double getUptimeSeconds();
+    double getExamplesPerSecond();
+    double getRealTokensPerSecond();
+    double getPaddedTokensPerSecond();
+    long getHeapUsedBytes();
+    long getOffHeapBytes();
+}
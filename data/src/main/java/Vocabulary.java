@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only id <-> word table in a compact binary form that is memory-mapped when loaded.
+ *
+ * Layout, little-endian:
+ *   header   int magic, int version, int size, int reserved, long checksum (CRC32 of everything after the header)
+ *   offsets  int[size + 1], start of the UTF-8 bytes of every id
+ *   sorted   int[size], ids in unsigned byte order of their words, for binary search
+ *   words    UTF-8 bytes of all words in id order
+ */
+public class Vocabulary {
+    static final int MAGIC = 0x53325356;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+
+    private ByteBuffer buffer;
+    private int size;
+    private long checksum;
+    private int sortedPosition;
+    private int wordsPosition;
+
+    private Vocabulary(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a vocabulary");
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported vocabulary version " + version);
+        this.size = buffer.getInt(8);
+        this.checksum = buffer.getLong(16);
+        this.sortedPosition = HEADER_SIZE + (this.size + 1) * Integer.BYTES;
+        this.wordsPosition = this.sortedPosition + this.size * Integer.BYTES;
+    }
+
+    /**
+     * Builds a vocabulary from a dictionary whose ids are 0 to size - 1.
+     */
+    public static Vocabulary of(Map<Integer, String> idWordDict) {
+        int size = idWordDict.size();
+        byte[][] words = new byte[size][];
+        long wordBytes = 0;
+        for (int id = 0; id < size; id++) {
+            String word = idWordDict.get(id);
+            if (word == null)
+                throw new IllegalArgumentException("Dictionary ids are not contiguous, " + id + " is missing");
+            words[id] = word.getBytes(StandardCharsets.UTF_8);
+            wordBytes += words[id].length;
+        }
+        long total = HEADER_SIZE + (2L * size + 1) * Integer.BYTES + wordBytes;
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Vocabulary too large: " + total + " bytes");
+
+        Integer[] sorted = new Integer[size];
+        for (int id = 0; id < size; id++) {
+            sorted[id] = id;
+        }
+        Arrays.sort(sorted, Comparator.comparing((Integer id) -> words[id], Vocabulary::compare));
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0).putLong(0L);
+        int offset = 0;
+        for (int id = 0; id < size; id++) {
+            buffer.putInt(offset);
+            offset += words[id].length;
+        }
+        buffer.putInt(offset);
+        for (int id : sorted) {
+            buffer.putInt(id);
+        }
+        for (byte[] word : words) {
+            buffer.put(word);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.limit() - HEADER_SIZE);
+        buffer.putLong(16, crc.getValue());
+        buffer.clear();
+        try {
+            return new Vocabulary(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps a vocabulary file written by save. The checksum is verified.
+     */
+    public static Vocabulary load(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() > Integer.MAX_VALUE)
+                throw new IOException("Vocabulary too large: " + file);
+            ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            Vocabulary vocabulary = new Vocabulary(buffer);
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            body.position(HEADER_SIZE);
+            crc.update(body);
+            if (crc.getValue() != vocabulary.checksum)
+                throw new IOException("Corrupted vocabulary: " + file);
+            return vocabulary;
+        }
+    }
+
+    public void save(File file) throws IOException {
+        ByteBuffer bytes = this.buffer.duplicate();
+        bytes.clear();
+        // written aside and moved in place, an interrupted save keeps the previous vocabulary
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            FileChannel channel = out.getChannel();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * CRC32 of the table, identifies the vocabulary a model was trained with.
+     */
+    public long getChecksum() {
+        return this.checksum;
+    }
+
+    public String getWord(int id) {
+        if (id < 0 || id >= this.size) return null;
+        int start = this.buffer.getInt(HEADER_SIZE + id * Integer.BYTES);
+        int end = this.buffer.getInt(HEADER_SIZE + (id + 1) * Integer.BYTES);
+        byte[] word = new byte[end - start];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = this.buffer.get(this.wordsPosition + start + i);
+        }
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    public int getId(String word, int unknown) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = this.buffer.getInt(this.sortedPosition + middle * Integer.BYTES);
+            int compare = compareWord(id, key);
+            if (compare < 0) low = middle + 1;
+            else if (compare > 0) high = middle - 1;
+            else return id;
+        }
+        return unknown;
+    }
+
+    // word of id compared with key, unsigned bytes
+    private int compareWord(int id, byte[] key) {
+        int start = this.wordsPosition + this.buffer.getInt(HEADER_SIZE + id * Integer.BYTES);
+        int length = this.wordsPosition + this.buffer.getInt(HEADER_SIZE + (id + 1) * Integer.BYTES) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int compare = Integer.compare(this.buffer.get(start + i) & 0xff, key[i] & 0xff);
+            if (compare != 0) return compare;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int compare = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (compare != 0) return compare;
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    public Map<String, Integer> toWordIdDict() {
+        Map<String, Integer> wordIdDict = new HashMap<>(this.size * 2);
+        for (int id = 0; id < this.size; id++) {
+            wordIdDict.put(getWord(id), id);
+        }
+        return wordIdDict;
+    }
+
+    public Map<Integer, String> toIdWordDict() {
+        Map<Integer, String> idWordDict = new HashMap<>(this.size * 2);
+        for (int id = 0; id < this.size; id++) {
+            idWordDict.put(id, getWord(id));
+        }
+        return idWordDict;
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the last window latencies and reports percentiles over them.
+ */
+public class LatencyRecorder {
+    private long[] samples;
+    private int next;
+    private long count;
+
+    public LatencyRecorder(int window) {
+        this.samples = new long[window];
+    }
+
+    public synchronized void record(long nanos) {
+        this.samples[this.next] = nanos;
+        this.next = (this.next + 1) % this.samples.length;
+        ++this.count;
+    }
+
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @param percentile in [0, 100]
+     * @return the latency in nanoseconds, 0 when nothing was recorded
+     */
+    public synchronized long percentile(double percentile) {
+        int size = (int) Math.min(this.count, this.samples.length);
+        if (size == 0) return 0;
+        long[] sorted = Arrays.copyOf(this.samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+}
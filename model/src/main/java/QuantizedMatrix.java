@@ -0,0 +1,107 @@
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Matrix of int8 values with one float scale per row, symmetric: value = scale[row] * q, q in [-127, 127].
+ *
+ * Rows are either lookup rows (embedding tables) or output units, so a matrix-vector product
+ * only has to apply one scale per output.
+ */
+public class QuantizedMatrix {
+    private int rows;
+    private int columns;
+    private byte[] values;
+    private float[] scales;
+
+    private QuantizedMatrix(int rows, int columns, byte[] values, float[] scales) {
+        this.rows = rows;
+        this.columns = columns;
+        this.values = values;
+        this.scales = scales;
+    }
+
+    /**
+     * Quantizes a rank 2 array, scaling every row by its largest absolute value.
+     */
+    public static QuantizedMatrix quantize(INDArray matrix) {
+        int rows = (int) matrix.rows();
+        int columns = (int) matrix.columns();
+        float[] data = matrix.castTo(DataType.FLOAT).dup('c').data().asFloat();
+        byte[] values = new byte[rows * columns];
+        float[] scales = new float[rows];
+        for (int r = 0; r < rows; r++) {
+            float max = 0;
+            for (int c = 0; c < columns; c++) {
+                max = Math.max(max, Math.abs(data[r * columns + c]));
+            }
+            scales[r] = max / 127f;
+            if (max == 0) continue;
+            for (int c = 0; c < columns; c++) {
+                values[r * columns + c] = (byte) Math.round(data[r * columns + c] / scales[r]);
+            }
+        }
+        return new QuantizedMatrix(rows, columns, values, scales);
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * out += row
+     */
+    public void addRow(int row, float[] out) {
+        float scale = this.scales[row];
+        int base = row * this.columns;
+        for (int c = 0; c < this.columns; c++) {
+            out[c] += scale * this.values[base + c];
+        }
+    }
+
+    /**
+     * out[r] += dot(row r, x) for every row
+     */
+    public void multiply(float[] x, float[] out) {
+        for (int r = 0; r < this.rows; r++) {
+            int base = r * this.columns;
+            float sum = 0;
+            for (int c = 0; c < this.columns; c++) {
+                sum += this.values[base + c] * x[c];
+            }
+            out[r] += this.scales[r] * sum;
+        }
+    }
+
+    public long sizeInBytes() {
+        return this.values.length + (long) this.scales.length * Float.BYTES;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.rows);
+        out.writeInt(this.columns);
+        for (float scale : this.scales) {
+            out.writeFloat(scale);
+        }
+        out.write(this.values);
+    }
+
+    public static QuantizedMatrix read(DataInputStream in) throws IOException {
+        int rows = in.readInt();
+        int columns = in.readInt();
+        float[] scales = new float[rows];
+        for (int r = 0; r < rows; r++) {
+            scales[r] = in.readFloat();
+        }
+        byte[] values = new byte[rows * columns];
+        in.readFully(values);
+        return new QuantizedMatrix(rows, columns, values, scales);
+    }
+}
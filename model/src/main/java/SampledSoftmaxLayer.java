@@ -0,0 +1,249 @@
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.gradient.DefaultGradient;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.layers.BaseOutputLayer;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.deeplearning4j.nn.workspace.ArrayType;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.util.TimeSeriesUtils;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.primitives.Pair;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Implementation of {@link SampledSoftmaxOutputLayer}. Time steps are flattened to rows like in
+ * RnnOutputLayer. Targets that were also drawn as negatives are removed from the negatives of their row.
+ *
+ * The updater still steps the whole weight matrix, the gradient outside the sampled columns is zero.
+ * Only the columns written by the previous step are cleared, which relies on RmsProp and the L2
+ * renormalization of Seq2SeqModel leaving zero gradients at zero.
+ */
+public class SampledSoftmaxLayer extends BaseOutputLayer<SampledSoftmaxOutputLayer> {
+    private Random random;
+    // cumulative sampling weights and log of the expected count of every class in a draw
+    private double[] cumulative;
+    private double[] logExpected;
+    // sampled loss of the current input and labels, NaN until computed
+    private double sampledScore = Double.NaN;
+    // columns of the weight and bias gradients written by the last backprop, null before the first
+    private int[] writtenColumns;
+
+    public SampledSoftmaxLayer(NeuralNetConfiguration conf, DataType dataType) {
+        super(conf, dataType);
+    }
+
+    @Override
+    public void setInput(INDArray input, LayerWorkspaceMgr workspaceMgr) {
+        super.setInput(input, workspaceMgr);
+        this.sampledScore = Double.NaN;
+    }
+
+    @Override
+    public void setLabels(INDArray labels) {
+        super.setLabels(labels);
+        this.sampledScore = Double.NaN;
+    }
+
+    @Override
+    public void setMaskArray(INDArray maskArray) {
+        // per time step masks, [n, T], line up with the flattened rows
+        this.maskArray = maskArray != null && maskArray.rank() == 2
+                ? TimeSeriesUtils.reshapeTimeSeriesMaskToVector(maskArray, LayerWorkspaceMgr.noWorkspacesImmutable(), ArrayType.INPUT)
+                : maskArray;
+    }
+
+    @Override
+    protected INDArray preOutput2d(boolean training, LayerWorkspaceMgr workspaceMgr) {
+        INDArray input3d = this.input;
+        this.input = TimeSeriesUtils.reshape3dTo2d(input3d, workspaceMgr, ArrayType.FF_WORKING_MEM);
+        try {
+            return super.preOutput(training, workspaceMgr);
+        } finally {
+            this.input = input3d;
+        }
+    }
+
+    @Override
+    protected INDArray getLabels2d(LayerWorkspaceMgr workspaceMgr, ArrayType arrayType) {
+        return this.labels.rank() == 3 ? TimeSeriesUtils.reshape3dTo2d(this.labels, workspaceMgr, arrayType) : this.labels;
+    }
+
+    // exact softmax over all classes
+    @Override
+    public INDArray activate(boolean training, LayerWorkspaceMgr workspaceMgr) {
+        assertInputSet(false);
+        INDArray output = layerConf().getActivationFn().getActivation(preOutput2d(training, workspaceMgr), training);
+        return TimeSeriesUtils.reshape2dTo3d(output, this.input.size(0), workspaceMgr, ArrayType.ACTIVATIONS);
+    }
+
+    @Override
+    public double computeScore(double fullNetRegTerm, boolean training, LayerWorkspaceMgr workspaceMgr) {
+        if (!training) return super.computeScore(fullNetRegTerm, false, workspaceMgr);
+        if (Double.isNaN(this.sampledScore))
+            sampled(TimeSeriesUtils.reshape3dTo2d(this.input, workspaceMgr, ArrayType.FF_WORKING_MEM), null);
+        this.score = this.sampledScore + fullNetRegTerm;
+        return this.score;
+    }
+
+    @Override
+    public Pair<Gradient, INDArray> backpropGradient(INDArray epsilon, LayerWorkspaceMgr workspaceMgr) {
+        assertInputSet(true);
+        INDArray input2d = TimeSeriesUtils.reshape3dTo2d(this.input, workspaceMgr, ArrayType.BP_WORKING_MEM);
+        Gradient gradient = new DefaultGradient();
+        INDArray epsilon2d = sampled(input2d, gradient);
+        INDArray epsilon3d = TimeSeriesUtils.reshape2dTo3d(epsilon2d, this.input.size(0), workspaceMgr, ArrayType.ACTIVATION_GRAD);
+        return new Pair<>(gradient, epsilon3d);
+    }
+
+    /**
+     * Computes the sampled loss of the rows of input2d, [rows, nIn], into sampledScore.
+     * With a gradient, also fills it with the weight and bias gradients and returns the epsilon, [rows, nIn].
+     */
+    private INDArray sampled(INDArray input2d, Gradient gradient) {
+        int rows = (int) input2d.size(0);
+        int[] targets = getLabels2d(LayerWorkspaceMgr.noWorkspaces(), ArrayType.INPUT).dup().data().asInt();
+        double[] mask = this.maskArray == null ? null : this.maskArray.dup().data().asDouble();
+        int[] negatives = sample();
+        int k = negatives.length;
+
+        INDArray weights = getParam(DefaultParamInitializer.WEIGHT_KEY);
+        double[] bias = getParam(DefaultParamInitializer.BIAS_KEY).dup().data().asDouble();
+        // columns of the targets and the negatives, as rows
+        INDArray targetWeights = Nd4j.pullRows(weights, 0, targets);
+        INDArray negativeWeights = Nd4j.pullRows(weights, 0, negatives);
+        double[] targetLogits = input2d.mul(targetWeights).sum(1).dup('c').data().asDouble();
+        double[] negativeLogits = input2d.mmul(negativeWeights.transpose()).dup('c').data().asDouble();
+
+        double[] targetGradient = new double[rows];
+        double[] negativeGradient = new double[rows * k];
+        double[] logits = new double[k + 1];
+        double loss = 0;
+        for (int i = 0; i < rows; i++) {
+            double weight = mask == null ? 1.0 : mask[i];
+            if (weight == 0) {
+                targets[i] = -1;
+                continue;
+            }
+            int target = targets[i];
+            logits[0] = targetLogits[i] + bias[target] - this.logExpected[target];
+            double max = logits[0];
+            for (int j = 0; j < k; j++) {
+                logits[j + 1] = negatives[j] == target
+                        ? Double.NEGATIVE_INFINITY
+                        : negativeLogits[i * k + j] + bias[negatives[j]] - this.logExpected[negatives[j]];
+                max = Math.max(max, logits[j + 1]);
+            }
+            double sum = 0;
+            for (int j = 0; j <= k; j++) {
+                logits[j] = Math.exp(logits[j] - max);
+                sum += logits[j];
+            }
+            loss -= weight * Math.log(logits[0] / sum);
+            targetGradient[i] = weight * (logits[0] / sum - 1);
+            for (int j = 0; j < k; j++) {
+                negativeGradient[i * k + j] = weight * logits[j + 1] / sum;
+            }
+        }
+        // summed over time steps, averaged over examples, like the exact score
+        this.sampledScore = loss / this.input.size(0);
+        if (gradient == null) return null;
+
+        // distinct target and negative ids, and the position of every id among them
+        int[] position = new int[bias.length];
+        Arrays.fill(position, -1);
+        int[] columns = new int[rows + k];
+        int m = 0;
+        for (int id : negatives) {
+            if (position[id] < 0) position[id] = m++;
+            columns[position[id]] = id;
+        }
+        for (int id : targets) {
+            if (id < 0) continue;
+            if (position[id] < 0) position[id] = m++;
+            columns[position[id]] = id;
+        }
+        columns = Arrays.copyOf(columns, m);
+
+        // logit gradient of every row for every distinct column, [rows, m], and its column sums
+        double[] delta = new double[rows * m];
+        double[] biasDelta = new double[m];
+        for (int i = 0; i < rows; i++) {
+            if (targets[i] >= 0) {
+                delta[i * m + position[targets[i]]] += targetGradient[i];
+                biasDelta[position[targets[i]]] += targetGradient[i];
+            }
+            for (int j = 0; j < k; j++) {
+                delta[i * m + position[negatives[j]]] += negativeGradient[i * k + j];
+                biasDelta[position[negatives[j]]] += negativeGradient[i * k + j];
+            }
+        }
+        DataType dataType = input2d.dataType();
+        INDArray deltaBlock = Nd4j.create(delta, new int[]{rows, m}).castTo(dataType);
+
+        INDArray weightGradient = this.gradientViews.get(DefaultParamInitializer.WEIGHT_KEY);
+        INDArray biasGradient = this.gradientViews.get(DefaultParamInitializer.BIAS_KEY);
+        if (this.writtenColumns == null) {
+            weightGradient.assign(0);
+            biasGradient.assign(0);
+        } else if (this.writtenColumns.length > 0) {
+            INDArrayIndex[] written = {NDArrayIndex.all(), NDArrayIndex.indices(toLong(this.writtenColumns))};
+            weightGradient.put(written, 0);
+            biasGradient.put(written, 0);
+        }
+        INDArrayIndex[] sampled = {NDArrayIndex.all(), NDArrayIndex.indices(toLong(columns))};
+        weightGradient.put(sampled, input2d.transpose().mmul(deltaBlock));
+        biasGradient.put(sampled, Nd4j.create(biasDelta, new int[]{1, m}).castTo(biasGradient.dataType()));
+        this.writtenColumns = columns;
+        gradient.gradientForVariable().put(DefaultParamInitializer.WEIGHT_KEY, weightGradient);
+        gradient.gradientForVariable().put(DefaultParamInitializer.BIAS_KEY, biasGradient);
+
+        return deltaBlock.mmul(Nd4j.pullRows(weights, 0, columns));
+    }
+
+    private static long[] toLong(int[] ids) {
+        long[] indices = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            indices[i] = ids[i];
+        }
+        return indices;
+    }
+
+    private int[] sample() {
+        if (this.cumulative == null) initSampler();
+        int[] negatives = new int[layerConf().getNegatives()];
+        double total = this.cumulative[this.cumulative.length - 1];
+        for (int j = 0; j < negatives.length; j++) {
+            int id = Arrays.binarySearch(this.cumulative, this.random.nextDouble() * total);
+            id = id < 0 ? -id - 1 : id + 1;
+            negatives[j] = Math.min(id, this.cumulative.length - 1);
+        }
+        return negatives;
+    }
+
+    private void initSampler() {
+        SampledSoftmaxOutputLayer conf = layerConf();
+        int size = (int) conf.getNOut();
+        long[] counts = conf.getTokenCounts();
+        this.cumulative = new double[size];
+        double total = 0;
+        for (int id = 0; id < size; id++) {
+            // add-one smoothing keeps classes missing from the counts reachable
+            total += counts == null ? 1.0 : Math.pow(counts[id] + 1, 0.75);
+            this.cumulative[id] = total;
+        }
+        this.logExpected = new double[size];
+        double previous = 0;
+        for (int id = 0; id < size; id++) {
+            double probability = (this.cumulative[id] - previous) / total;
+            previous = this.cumulative[id];
+            this.logExpected[id] = Math.log(conf.getNegatives() * probability);
+        }
+        this.random = new Random(conf.getSeed());
+    }
+}
@@ -0,0 +1,130 @@
+import org.deeplearning4j.nn.api.ParamInitializer;
+import org.deeplearning4j.nn.conf.InputPreProcessor;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.BaseOutputLayer;
+import org.deeplearning4j.nn.conf.layers.InputTypeUtil;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.deeplearning4j.optimize.api.TrainingListener;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.lossfunctions.impl.LossSparseMCXENT;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Softmax output layer over time steps with class index labels, [n, 1, T], that trains with sampled softmax.
+ *
+ * Every training step scores the target against negatives token ids drawn from the unigram^0.75
+ * distribution of tokenCounts (uniform without counts), corrected by their expected counts, so only
+ * those columns of the output matrix are multiplied. Scoring outside training and the activations
+ * use the exact softmax over all nOut classes, like an RnnOutputLayer with LossSparseMCXENT.
+ */
+public class SampledSoftmaxOutputLayer extends BaseOutputLayer {
+    private int negatives;
+    private long seed;
+    private long[] tokenCounts;
+
+    // for JSON deserialization
+    protected SampledSoftmaxOutputLayer() {
+    }
+
+    private SampledSoftmaxOutputLayer(Builder builder) {
+        super(builder);
+        this.negatives = builder.negatives;
+        this.seed = builder.seed;
+        this.tokenCounts = builder.tokenCounts;
+        initializeConstraints(builder);
+    }
+
+    public int getNegatives() {
+        return this.negatives;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    // occurrences of every class in the training labels, null for uniform negatives
+    public long[] getTokenCounts() {
+        return this.tokenCounts;
+    }
+
+    @Override
+    public org.deeplearning4j.nn.api.Layer instantiate(NeuralNetConfiguration conf,
+                                                       Collection<TrainingListener> trainingListeners,
+                                                       int layerIndex,
+                                                       INDArray layerParamsView,
+                                                       boolean initializeParams,
+                                                       DataType networkDataType) {
+        SampledSoftmaxLayer layer = new SampledSoftmaxLayer(conf, networkDataType);
+        layer.setListeners(trainingListeners);
+        layer.setIndex(layerIndex);
+        layer.setParamsViewArray(layerParamsView);
+        Map<String, INDArray> paramTable = initializer().init(conf, layerParamsView, initializeParams);
+        layer.setParamTable(paramTable);
+        layer.setConf(conf);
+        return layer;
+    }
+
+    @Override
+    public ParamInitializer initializer() {
+        return DefaultParamInitializer.getInstance();
+    }
+
+    @Override
+    public InputType getOutputType(int layerIndex, InputType inputType) {
+        if (inputType == null || inputType.getType() != InputType.Type.RNN)
+            throw new IllegalStateException("Invalid input type for SampledSoftmaxOutputLayer "
+                    + getLayerName() + ": expected recurrent input, got " + inputType);
+        return InputType.recurrent(getNOut(), ((InputType.InputTypeRecurrent) inputType).getTimeSeriesLength());
+    }
+
+    @Override
+    public void setNIn(InputType inputType, boolean override) {
+        if (inputType == null || inputType.getType() != InputType.Type.RNN)
+            throw new IllegalStateException("Invalid input type for SampledSoftmaxOutputLayer "
+                    + getLayerName() + ": expected recurrent input, got " + inputType);
+        if (getNIn() <= 0 || override) setNIn(((InputType.InputTypeRecurrent) inputType).getSize());
+    }
+
+    @Override
+    public InputPreProcessor getPreProcessorForInputType(InputType inputType) {
+        return InputTypeUtil.getPreprocessorForInputTypeRnnLayers(inputType, getLayerName());
+    }
+
+    public static class Builder extends BaseOutputLayer.Builder<Builder> {
+        private int negatives = 512;
+        private long seed = 246;
+        private long[] tokenCounts;
+
+        public Builder() {
+            lossFunction(new LossSparseMCXENT());
+            activation(Activation.SOFTMAX);
+        }
+
+        // negative classes sampled per training step, shared by all time steps of the batch
+        public Builder negatives(int negatives) {
+            this.negatives = negatives;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder tokenCounts(long[] tokenCounts) {
+            this.tokenCounts = tokenCounts;
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public SampledSoftmaxOutputLayer build() {
+            return new SampledSoftmaxOutputLayer(this);
+        }
+    }
+}
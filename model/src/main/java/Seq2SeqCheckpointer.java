@@ -0,0 +1,257 @@
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes training checkpoints on a background thread.
+ *
+ * save copies the parameters and the updater state on the calling thread, which only costs two
+ * device copies, and returns while the copies are written. Every checkpoint is a ModelSerializer
+ * compatible zip plus a checkpoint.properties entry with the training position. It is written to
+ * a temporary file and renamed into place, so a crash never leaves a partial checkpoint behind.
+ * Only the last keep checkpoints are kept.
+ */
+public class Seq2SeqCheckpointer implements AutoCloseable {
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".zip";
+    private static final String METADATA = "checkpoint.properties";
+
+    private File directory;
+    private int keep;
+    private long sequence;
+    private ExecutorService writer;
+    private Future<?> pending;
+    private TrainingMetrics metrics;
+
+    public Seq2SeqCheckpointer(File directory, int keep) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create checkpoint directory " + directory);
+        this.directory = directory;
+        this.keep = Math.max(1, keep);
+        // left behind by a crash while writing
+        File[] partial = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX + ".tmp"));
+        if (partial != null) {
+            for (File file : partial) {
+                file.delete();
+            }
+        }
+        List<File> existing = list();
+        this.sequence = existing.isEmpty() ? 0 : sequenceOf(existing.get(existing.size() - 1)) + 1;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "seq2seq-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Snapshots the network and queues the checkpoint. Waits for the previous checkpoint first,
+     * so at most one snapshot is held in memory.
+     */
+    public void save(ComputationGraph net, Checkpoint position) throws IOException {
+        awaitPending();
+        long start = System.nanoTime();
+        String configuration = net.getConfiguration().toJson();
+        INDArray params = net.params().dup();
+        INDArray updaterState = net.getUpdater() != null ? net.getUpdater().getStateViewArray() : null;
+        INDArray updater = updaterState != null ? updaterState.dup() : null;
+        File target = new File(this.directory, String.format("%s%08d%s", PREFIX, this.sequence++, SUFFIX));
+        long snapshotNanos = System.nanoTime() - start;
+        this.pending = this.writer.submit(() -> {
+            long writeStart = System.nanoTime();
+            write(target, configuration, params, updater, position);
+            prune();
+            if (this.metrics != null) this.metrics.recordCheckpoint(snapshotNanos, System.nanoTime() - writeStart);
+            return null;
+        });
+    }
+
+    private void write(File target, String configuration, INDArray params, INDArray updater,
+                       Checkpoint position) throws IOException {
+        File temp = new File(this.directory, target.getName() + ".tmp");
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            zip.putNextEntry(new ZipEntry("configuration.json"));
+            zip.write(configuration.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            DataOutputStream data = new DataOutputStream(zip);
+            zip.putNextEntry(new ZipEntry("coefficients.bin"));
+            Nd4j.write(params, data);
+            data.flush();
+            zip.closeEntry();
+            if (updater != null) {
+                zip.putNextEntry(new ZipEntry("updaterState.bin"));
+                Nd4j.write(updater, data);
+                data.flush();
+                zip.closeEntry();
+            }
+
+            zip.putNextEntry(new ZipEntry(METADATA));
+            position.toProperties().store(zip, null);
+            zip.closeEntry();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Checkpoint " + target.getName() + " " + position);
+    }
+
+    private void prune() {
+        List<File> checkpoints = list();
+        for (int i = 0; i < checkpoints.size() - this.keep; i++) {
+            if (!checkpoints.get(i).delete())
+                System.out.println("Cannot delete old checkpoint " + checkpoints.get(i));
+        }
+    }
+
+    // complete checkpoints, oldest first
+    private List<File> list() {
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) return new ArrayList<>();
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private static long sequenceOf(File checkpoint) {
+        String name = checkpoint.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @return the most recent checkpoint, null if there is none
+     */
+    public Checkpoint latest() throws IOException {
+        awaitPending();
+        List<File> checkpoints = list();
+        if (checkpoints.isEmpty()) return null;
+        File file = checkpoints.get(checkpoints.size() - 1);
+        try (ZipFile zip = new ZipFile(file)) {
+            ZipEntry entry = zip.getEntry(METADATA);
+            if (entry == null) throw new IOException("No training position in " + file);
+            Properties properties = new Properties();
+            try (InputStream in = zip.getInputStream(entry)) {
+                properties.load(in);
+            }
+            return Checkpoint.fromProperties(file, properties);
+        }
+    }
+
+    private void awaitPending() throws IOException {
+        if (this.pending == null) return;
+        try {
+            this.pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing a checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to write a checkpoint", e.getCause());
+        } finally {
+            this.pending = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitPending();
+        } finally {
+            this.writer.shutdown();
+            try {
+                this.writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Where training stopped: the model epoch, the next batch of the iterator,
+     * and the iterator epoch and seed its batch order is shuffled with.
+     */
+    public static class Checkpoint {
+        private File file;
+        private int epoch;
+        private int batch;
+        private int iteratorEpoch;
+        private long seed;
+
+        public Checkpoint(int epoch, int batch, int iteratorEpoch, long seed) {
+            this(null, epoch, batch, iteratorEpoch, seed);
+        }
+
+        private Checkpoint(File file, int epoch, int batch, int iteratorEpoch, long seed) {
+            this.file = file;
+            this.epoch = epoch;
+            this.batch = batch;
+            this.iteratorEpoch = iteratorEpoch;
+            this.seed = seed;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        public int getEpoch() {
+            return this.epoch;
+        }
+
+        public int getBatch() {
+            return this.batch;
+        }
+
+        public int getIteratorEpoch() {
+            return this.iteratorEpoch;
+        }
+
+        public long getSeed() {
+            return this.seed;
+        }
+
+        private Properties toProperties() {
+            Properties properties = new Properties();
+            properties.setProperty("epoch", String.valueOf(this.epoch));
+            properties.setProperty("batch", String.valueOf(this.batch));
+            properties.setProperty("iteratorEpoch", String.valueOf(this.iteratorEpoch));
+            properties.setProperty("seed", String.valueOf(this.seed));
+            return properties;
+        }
+
+        private static Checkpoint fromProperties(File file, Properties properties) {
+            return new Checkpoint(file,
+                    Integer.parseInt(properties.getProperty("epoch")),
+                    Integer.parseInt(properties.getProperty("batch")),
+                    Integer.parseInt(properties.getProperty("iteratorEpoch")),
+                    Long.parseLong(properties.getProperty("seed")));
+        }
+
+        @Override
+        public String toString() {
+            return "epoch " + this.epoch + " batch " + this.batch
+                    + " (iterator epoch " + this.iteratorEpoch + ", seed " + this.seed + ")";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+public class Seq2SeqDecodeOptions {
+    private int beamWidth;
+    private int maxLength;
+    private double lengthPenalty;
+
+    /**
+     * @param beamWidth number of hypotheses kept per query, 1 decodes greedily
+     * @param maxLength maximum number of generated tokens, <eos> excluded
+     * @param lengthPenalty alpha of the ((5 + length) / 6) ^ alpha normalization of beam scores
+     */
+    public Seq2SeqDecodeOptions(int beamWidth, int maxLength, double lengthPenalty) {
+        if (beamWidth < 1) throw new IllegalArgumentException("beamWidth must be >= 1: " + beamWidth);
+        if (maxLength < 1) throw new IllegalArgumentException("maxLength must be >= 1: " + maxLength);
+        this.beamWidth = beamWidth;
+        this.maxLength = maxLength;
+        this.lengthPenalty = lengthPenalty;
+    }
+
+    public static Seq2SeqDecodeOptions greedy(int maxLength) {
+        return new Seq2SeqDecodeOptions(1, maxLength, 0.0);
+    }
+
+    public int getBeamWidth() {
+        return this.beamWidth;
+    }
+
+    public int getMaxLength() {
+        return this.maxLength;
+    }
+
+    public double getLengthPenalty() {
+        return this.lengthPenalty;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Seq2SeqDecodeOptions)) return false;
+        Seq2SeqDecodeOptions other = (Seq2SeqDecodeOptions) o;
+        return this.beamWidth == other.beamWidth
+                && this.maxLength == other.maxLength
+                && Double.compare(this.lengthPenalty, other.lengthPenalty) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.beamWidth * 31 + this.maxLength) * 31 + Double.hashCode(this.lengthPenalty);
+    }
+
+    @Override
+    public String toString() {
+        return "beamWidth=" + this.beamWidth + " maxLength=" + this.maxLength + " lengthPenalty=" + this.lengthPenalty;
+    }
+}
@@ -0,0 +1,206 @@
+import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Knowledge distillation of a trained Seq2SeqModel graph into a smaller student.
+ *
+ * The teacher runs once over the corpus with the gold replies fed to its decoder, and the topK tokens
+ * of its distribution at every step are cached to disk in a TeacherTopKCache, keyed by checksums
+ * of the teacher parameters and of the corpus, so later epochs and later runs do not run the teacher again.
+ * The student then trains with MCXENT on the softened teacher distributions mixed with the hard labels.
+ *
+ * The teacher may be built in index mode or not, the student must be one-hot.
+ */
+public class Seq2SeqDistiller {
+    /**
+     * CRC32 of the teacher parameters as FP32.
+     */
+    public static long checksum(ComputationGraph teacher) {
+        float[] params = teacher.params().castTo(DataType.FLOAT).dup().data().asFloat();
+        ByteBuffer bytes = ByteBuffer.allocate(params.length * Float.BYTES);
+        bytes.asFloatBuffer().put(params);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array());
+        return crc.getValue();
+    }
+
+    /**
+     * CRC32 of the token ids of every row of features and labels, with their lengths.
+     */
+    public static long checksum(BaseTokenCorpus features, BaseTokenCorpus labels) {
+        CRC32 crc = new CRC32();
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * 64);
+        for (BaseTokenCorpus corpus : new BaseTokenCorpus[]{features, labels}) {
+            for (int row = 0; row < corpus.size(); row++) {
+                int length = corpus.length(row);
+                bytes.putInt(length);
+                for (int t = 0; t < length; t++) {
+                    if (!bytes.hasRemaining()) {
+                        crc.update(bytes.array(), 0, bytes.position());
+                        bytes.clear();
+                    }
+                    bytes.putInt(corpus.get(row, t));
+                }
+                crc.update(bytes.array(), 0, bytes.position());
+                bytes.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Opens the cache in cacheFile if it was built for this teacher and corpus, builds it over
+     * the rows of iterator otherwise.
+     */
+    public static TeacherTopKCache openOrBuild(ComputationGraph teacher, Seq2SeqCustomDataSetIterator iterator,
+                                               int rowSize, int topK, File cacheFile) throws IOException {
+        long checksum = checksum(teacher);
+        long corpusChecksum = checksum(iterator.getFeatures(), iterator.getLabels());
+        int rows = iterator.getFeatures().size();
+        TeacherTopKCache cache = TeacherTopKCache.open(cacheFile, checksum, corpusChecksum, rows, rowSize, topK);
+        if (cache != null) return cache;
+        build(teacher, iterator, checksum, corpusChecksum, rowSize, topK, cacheFile);
+        return TeacherTopKCache.open(cacheFile, checksum, corpusChecksum, rows, rowSize, topK);
+    }
+
+    private static void build(ComputationGraph teacher, Seq2SeqCustomDataSetIterator iterator, long checksum,
+                              long corpusChecksum, int rowSize, int topK, File cacheFile) throws IOException {
+        System.out.println("Caching the top " + topK + " teacher tokens to " + cacheFile);
+        long start = System.nanoTime();
+        try (TeacherTopKCache.Writer writer = new TeacherTopKCache.Writer(
+                cacheFile, checksum, corpusChecksum, iterator.getFeatures().size(), rowSize, topK)) {
+            int[] ids = new int[rowSize * topK];
+            float[] probabilities = new float[rowSize * topK];
+            iterator.setCurrentBatch(0);
+            while (iterator.getCurrentBatch() < iterator.getTotalBatches()) {
+                int[] rows = iterator.getBatchRows(iterator.getCurrentBatch());
+                MultiDataSet batch = iterator.next();
+                INDArray output = teacher.output(false, teacherInputs(teacher, batch),
+                        batch.getFeaturesMaskArrays(), batch.getLabelsMaskArrays())[0];
+                int dictSize = (int) output.size(1);
+                int length = (int) output.size(2);
+                if (!iterator.isIndexMode() && batch.getLabels(0).size(1) != dictSize)
+                    throw new IllegalArgumentException("Teacher with " + dictSize + " outputs for a corpus of "
+                            + batch.getLabels(0).size(1) + " words");
+                float[] data = output.castTo(DataType.FLOAT).dup('c').data().asFloat();
+                float[] mask = batch.getLabelsMaskArray(0).castTo(DataType.FLOAT).dup('c').data().asFloat();
+                for (int j = 0; j < rows.length; j++) {
+                    Arrays.fill(ids, 0);
+                    Arrays.fill(probabilities, 0f);
+                    for (int t = 0; t < Math.min(length, rowSize); t++) {
+                        if (mask[j * length + t] == 0) continue;
+                        topK(data, (long) j * dictSize * length + t, length, dictSize,
+                                ids, probabilities, t * topK, topK);
+                    }
+                    writer.putRow(rows[j], ids, probabilities);
+                }
+            }
+            iterator.setCurrentBatch(0);
+            writer.finish();
+        }
+        System.out.printf("Cached the teacher in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    // the topK largest of data[base + id * stride], largest first, into ids and probabilities from offset
+    private static void topK(float[] data, long base, int stride, int dictSize,
+                             int[] ids, float[] probabilities, int offset, int topK) {
+        int size = 0;
+        for (int id = 0; id < dictSize; id++) {
+            float probability = data[(int) (base + (long) id * stride)];
+            if (size == topK && probability <= probabilities[offset + topK - 1]) continue;
+            int i = Math.min(size, topK - 1);
+            while (i > 0 && probabilities[offset + i - 1] < probability) {
+                ids[offset + i] = ids[offset + i - 1];
+                probabilities[offset + i] = probabilities[offset + i - 1];
+                --i;
+            }
+            ids[offset + i] = id;
+            probabilities[offset + i] = probability;
+            if (size < topK) ++size;
+        }
+    }
+
+    // the batch inputs in the teacher's mode: decoder token ids in index mode, one-hot vectors otherwise
+    private static INDArray[] teacherInputs(ComputationGraph teacher, MultiDataSet batch) {
+        boolean teacherIndexMode = teacher.getConfiguration().getVertices().containsKey("embeddingDecoder");
+        INDArray decode = batch.getFeatures(1);
+        boolean batchIndexMode = decode.size(1) == 1;
+        if (teacherIndexMode == batchIndexMode) return batch.getFeatures();
+
+        long n = decode.size(0);
+        long length = decode.size(2);
+        if (teacherIndexMode) {
+            // padded steps argmax to 0, they are masked
+            INDArray ids = Nd4j.argMax(decode, 1).castTo(DataType.FLOAT).reshape(n, 1, length);
+            return new INDArray[]{batch.getFeatures(0), ids};
+        }
+        int dictSize = outputSize(teacher);
+        INDArray oneHot = Nd4j.zeros(decode.dataType(), n, dictSize, length);
+        for (int j = 0; j < n; j++) {
+            for (int t = 0; t < length; t++) {
+                oneHot.putScalar(new long[]{j, decode.getInt(j, 0, t), t}, 1.0);
+            }
+        }
+        return new INDArray[]{batch.getFeatures(0), oneHot};
+    }
+
+    private static int outputSize(ComputationGraph net) {
+        return (int) ((FeedForwardLayer) net.getLayer("output").conf().getLayer()).getNOut();
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int embeddingSize = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int hiddenSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        double temperature = 2.0;
+        double alpha = 0.7;
+        int topK = 8;
+        int rowSize = 22;
+
+        Vocabulary vocabulary = Seq2SeqModel.openVocabulary();
+        File teacherFile = new File("resources/model.bin");
+        if (vocabulary != null && ModelSerializer.listObjectsInFile(teacherFile).contains(Seq2SeqModel.VOCABULARY_CHECKSUM)
+                && ModelSerializer.<Long>getObjectFromFile(teacherFile, Seq2SeqModel.VOCABULARY_CHECKSUM) != vocabulary.getChecksum())
+            throw new IllegalStateException(teacherFile + " was not trained with the current vocabulary");
+        ComputationGraph teacher = ModelSerializer.restoreComputationGraph(teacherFile, false);
+        int dictSize = outputSize(teacher);
+
+        Seq2SeqCustomDataSetIterator dataSetIterator = Seq2SeqModel.openCorpus(200, dictSize, rowSize);
+        if (dataSetIterator.getFeatures() instanceof ShardedTokenCorpus) dataSetIterator.setShuffleBuffer(100000, 246);
+        else dataSetIterator.setBucketing(4, 0, 246);
+        Seq2SeqCustomDataSetIterator heldOut = dataSetIterator.holdOut(0.02, 246);
+        dataSetIterator.setPrefetch(2, 4);
+        TeacherTopKCache cache = openOrBuild(teacher, dataSetIterator, rowSize, topK,
+                new File("resources/teacher-top" + topK + ".bin"));
+
+        Seq2SeqModel student =
+                new Seq2SeqModel(
+                        dataSetIterator,
+                        dictSize,
+                        rowSize,
+                        new File("resources/student-network.bin"),
+                        new File("resources/student-model.bin"));
+        student.setVocabulary(vocabulary);
+        student.setSizes(embeddingSize, hiddenSize);
+        student.initNetWork(false);
+        student.setDistillation(cache, temperature, alpha);
+        try (Seq2SeqEvaluator evaluator = new Seq2SeqEvaluator(student.getNet(), heldOut,
+                new Seq2SeqEarlyStopping(5, 1e-3), new File("resources/best-student-model.bin"))) {
+            student.setEvaluator(evaluator);
+            student.train(0);
+        }
+        student.saveModel();
+        cache.close();
+        dataSetIterator.shutdownPrefetch();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Stops training once the held-out loss has not improved by more than minDelta
+ * for patience evaluations in a row.
+ */
+public class Seq2SeqEarlyStopping {
+    private int patience;
+    private double minDelta;
+
+    private double bestLoss = Double.POSITIVE_INFINITY;
+    private int bestEpoch = -1;
+    private int evaluationsWithoutImprovement;
+
+    public Seq2SeqEarlyStopping(int patience, double minDelta) {
+        this.patience = patience;
+        this.minDelta = minDelta;
+    }
+
+    /**
+     * @return true if the loss is a new best
+     */
+    public synchronized boolean update(int epoch, double loss) {
+        if (loss < this.bestLoss - this.minDelta) {
+            this.bestLoss = loss;
+            this.bestEpoch = epoch;
+            this.evaluationsWithoutImprovement = 0;
+            return true;
+        }
+        ++this.evaluationsWithoutImprovement;
+        return false;
+    }
+
+    public synchronized boolean shouldStop() {
+        return this.evaluationsWithoutImprovement >= this.patience;
+    }
+
+    public synchronized double getBestLoss() {
+        return this.bestLoss;
+    }
+
+    public synchronized int getBestEpoch() {
+        return this.bestEpoch;
+    }
+}
@@ -0,0 +1,262 @@
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates snapshots of the training network on a held-out iterator on a background thread.
+ *
+ * Reports the masked per-token cross entropy and its perplexity, and optionally the corpus BLEU-4
+ * of greedy replies to the first held-out queries. Results feed a Seq2SeqEarlyStopping, and every
+ * new best snapshot is written to bestModelFile.
+ */
+public class Seq2SeqEvaluator implements AutoCloseable {
+    private static final int DECODE_BATCH = 64;
+
+    private ComputationGraph evalNet;
+    private Seq2SeqCustomDataSetIterator heldOut;
+    private Seq2SeqEarlyStopping earlyStopping;
+    private File bestModelFile;
+    private int bleuExamples = 0;
+    private int maxLength;
+
+    private ExecutorService executor;
+    private Future<?> pending;
+    private volatile Result lastResult;
+
+    public Seq2SeqEvaluator(ComputationGraph net,
+                            Seq2SeqCustomDataSetIterator heldOut,
+                            Seq2SeqEarlyStopping earlyStopping,
+                            File bestModelFile) {
+        this.evalNet = net.clone();
+        this.evalNet.setListeners();
+        this.heldOut = heldOut;
+        this.earlyStopping = earlyStopping;
+        this.bestModelFile = bestModelFile;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "seq2seq-evaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Also decodes the first examples held-out queries, at most maxLength tokens each, and scores them with BLEU.
+     */
+    public void setBleu(int examples, int maxLength) {
+        this.bleuExamples = examples;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Copies the parameters of net and evaluates them in the background.
+     * @return false if the previous evaluation is still running, nothing is evaluated then
+     */
+    public boolean evaluateAsync(ComputationGraph net, int epoch) {
+        if (this.pending != null && !this.pending.isDone()) {
+            System.out.println("Skipping the evaluation of epoch " + epoch + ", the previous one is still running");
+            return false;
+        }
+        INDArray snapshot = net.params().dup();
+        this.pending = this.executor.submit(() -> {
+            this.evalNet.setParams(snapshot);
+            Result result = evaluate(epoch);
+            this.lastResult = result;
+            boolean best = this.earlyStopping != null && this.earlyStopping.update(epoch, result.loss);
+            System.out.println(result + (best ? " (best)" : ""));
+            if (best && this.bestModelFile != null) saveBest();
+            return null;
+        });
+        return true;
+    }
+
+    private void saveBest() throws IOException {
+        File temp = new File(this.bestModelFile.getPath() + ".tmp");
+        ModelSerializer.writeModel(this.evalNet, temp, false);
+        Files.move(temp.toPath(), this.bestModelFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Result evaluate(int epoch) {
+        Result result = evaluate(this.evalNet, this.heldOut, epoch);
+        if (this.bleuExamples > 0) result.bleu = bleu();
+        return result;
+    }
+
+    /**
+     * Evaluates net on every batch of heldOut on the calling thread, without BLEU.
+     */
+    public static Result evaluate(ComputationGraph net, Seq2SeqCustomDataSetIterator heldOut, int epoch) {
+        double loss = 0;
+        long tokens = 0;
+        heldOut.setCurrentBatch(0);
+        while (heldOut.getCurrentBatch() < heldOut.getTotalBatches()) {
+            MultiDataSet batch = heldOut.next();
+            // the score is the masked cross entropy summed over timesteps, averaged over the examples
+            loss += net.score(batch, false) * batch.getFeatures(0).size(0);
+            tokens += batch.getLabelsMaskArray(0).sumNumber().longValue();
+        }
+        double tokenLoss = tokens == 0 ? Double.NaN : loss / tokens;
+        return new Result(epoch, tokenLoss, tokens, Double.NaN);
+    }
+
+    private double bleu() {
+        BaseTokenCorpus features = this.heldOut.getFeatures();
+        BaseTokenCorpus labels = this.heldOut.getLabels();
+        int[] rows = this.heldOut.getRows();
+        int examples = Math.min(this.bleuExamples, rows.length);
+
+        Seq2SeqInference inference = new Seq2SeqInference(this.evalNet, null, null);
+        Seq2SeqDecodeOptions options = Seq2SeqDecodeOptions.greedy(this.maxLength);
+        List<int[]> hypotheses = new ArrayList<>(examples);
+        List<int[]> references = new ArrayList<>(examples);
+        for (int start = 0; start < examples; start += DECODE_BATCH) {
+            List<int[]> queries = new ArrayList<>(DECODE_BATCH);
+            for (int i = start; i < Math.min(examples, start + DECODE_BATCH); i++) {
+                queries.add(tokens(features, rows[i]));
+                references.add(tokens(labels, rows[i]));
+            }
+            hypotheses.addAll(inference.decode(queries, options));
+        }
+        return bleu(hypotheses, references);
+    }
+
+    private static int[] tokens(BaseTokenCorpus corpus, int row) {
+        int[] tokens = new int[corpus.length(row)];
+        for (int t = 0; t < tokens.length; t++) {
+            tokens[t] = corpus.get(row, t);
+        }
+        return tokens;
+    }
+
+    /**
+     * Corpus BLEU-4 with uniform weights and brevity penalty, on token ids.
+     */
+    public static double bleu(List<int[]> hypotheses, List<int[]> references) {
+        long[] matches = new long[4];
+        long[] totals = new long[4];
+        long hypothesisLength = 0;
+        long referenceLength = 0;
+        for (int i = 0; i < hypotheses.size(); i++) {
+            int[] hypothesis = hypotheses.get(i);
+            int[] reference = references.get(i);
+            hypothesisLength += hypothesis.length;
+            referenceLength += reference.length;
+            for (int n = 1; n <= 4; n++) {
+                Map<List<Integer>, Integer> referenceCounts = ngrams(reference, n);
+                for (Map.Entry<List<Integer>, Integer> ngram : ngrams(hypothesis, n).entrySet()) {
+                    matches[n - 1] += Math.min(ngram.getValue(), referenceCounts.getOrDefault(ngram.getKey(), 0));
+                }
+                totals[n - 1] += Math.max(0, hypothesis.length - n + 1);
+            }
+        }
+        double logPrecision = 0;
+        for (int n = 0; n < 4; n++) {
+            if (matches[n] == 0) return 0.0;
+            logPrecision += Math.log((double) matches[n] / totals[n]) / 4;
+        }
+        double brevity = hypothesisLength >= referenceLength
+                ? 1.0
+                : Math.exp(1.0 - (double) referenceLength / Math.max(1, hypothesisLength));
+        return brevity * Math.exp(logPrecision);
+    }
+
+    private static Map<List<Integer>, Integer> ngrams(int[] tokens, int n) {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (int i = 0; i + n <= tokens.length; i++) {
+            List<Integer> ngram = new ArrayList<>(n);
+            for (int j = i; j < i + n; j++) {
+                ngram.add(tokens[j]);
+            }
+            counts.merge(ngram, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    public boolean shouldStop() {
+        return this.earlyStopping != null && this.earlyStopping.shouldStop();
+    }
+
+    public Result getLastResult() {
+        return this.lastResult;
+    }
+
+    /**
+     * Waits for the running evaluation.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.pending != null) this.pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("Evaluation failed", e.getCause());
+        } finally {
+            this.executor.shutdown();
+            try {
+                this.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class Result {
+        private int epoch;
+        private double loss;
+        private long tokens;
+        private double bleu;
+
+        private Result(int epoch, double loss, long tokens, double bleu) {
+            this.epoch = epoch;
+            this.loss = loss;
+            this.tokens = tokens;
+            this.bleu = bleu;
+        }
+
+        public int getEpoch() {
+            return this.epoch;
+        }
+
+        // mean cross entropy per target token, in nats
+        public double getLoss() {
+            return this.loss;
+        }
+
+        public double getPerplexity() {
+            return Math.exp(this.loss);
+        }
+
+        public long getTokens() {
+            return this.tokens;
+        }
+
+        // NaN when BLEU is off
+        public double getBleu() {
+            return this.bleu;
+        }
+
+        @Override
+        public String toString() {
+            String text = String.format("Evaluation epoch %d: loss %.4f, perplexity %.2f over %d tokens",
+                    this.epoch, this.loss, getPerplexity(), this.tokens);
+            if (!Double.isNaN(this.bleu)) text += String.format(", BLEU %.4f", this.bleu);
+            return text;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.graph.MergeVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Text in, text out decoding over a trained Seq2SeqModel graph.
+ *
+ * The encoder runs once per query to get the thought vector. The decoder half of the graph is rebuilt
+ * as a separate graph sharing the trained weights, with the thought vector as a second input, so it
+ * can be stepped one token at a time with rnnTimeStep instead of re-running the whole sequence.
+ * Graphs built in index mode, with an embeddingDecoder layer, are fed token ids instead of one-hot vectors.
+ * With a shortlist, the decoder output layer only keeps the columns of the shortlisted tokens.
+ *
+ * Instances are not thread safe, calls are serialized.
+ */
+public class Seq2SeqInference {
+    // WARNING: <unk> == 0, <eos> == 1 and <go> == 2 in the dictionary.
+    private static final int UNK = 0;
+    private static final int EOS = 1;
+    private static final int GO = 2;
+
+    private ComputationGraph net;
+    private ComputationGraph decoderNet;
+    private BaseTextParser textParser;
+    private Vocabulary vocabulary;
+    private int dictSize;
+    private int thoughtSize;
+    private boolean indexMode;
+    // sorted token ids the decoder can emit, null for the whole vocabulary
+    private int[] shortlist;
+    private long[] tokenCounts;
+
+    public Seq2SeqInference(ComputationGraph net, BaseTextParser textParser, Vocabulary vocabulary) {
+        this.net = net;
+        this.textParser = textParser;
+        this.vocabulary = vocabulary;
+        this.dictSize = (int) ((FeedForwardLayer) net.getLayer("output").conf().getLayer()).getNOut();
+        if (vocabulary != null && vocabulary.size() != this.dictSize)
+            throw new IllegalArgumentException("Vocabulary of " + vocabulary.size()
+                    + " words for a model with " + this.dictSize + " outputs");
+        this.thoughtSize = (int) ((FeedForwardLayer) net.getLayer("encoder").conf().getLayer()).getNOut();
+        this.indexMode = net.getConfiguration().getVertices().containsKey("embeddingDecoder");
+        this.decoderNet = buildDecoder();
+    }
+
+    /**
+     * Restores a model saved by Seq2SeqModel and checks that it was trained with the given vocabulary.
+     */
+    public static Seq2SeqInference load(File modelFile, File vocabularyFile, BaseTextParser textParser) throws IOException {
+        return load(modelFile, vocabularyFile, textParser, Seq2SeqPrecision.FP32);
+    }
+
+    /**
+     * load, with the weights converted to the given precision if the backend supports it.
+     */
+    public static Seq2SeqInference load(File modelFile, File vocabularyFile, BaseTextParser textParser,
+                                        Seq2SeqPrecision precision) throws IOException {
+        Vocabulary vocabulary = Vocabulary.load(vocabularyFile);
+        if (ModelSerializer.listObjectsInFile(modelFile).contains(Seq2SeqModel.VOCABULARY_CHECKSUM)) {
+            long checksum = ModelSerializer.<Long>getObjectFromFile(modelFile, Seq2SeqModel.VOCABULARY_CHECKSUM);
+            if (checksum != vocabulary.getChecksum())
+                throw new IllegalStateException(modelFile + " was not trained with " + vocabularyFile);
+        } else {
+            System.out.println("No vocabulary checksum in " + modelFile + ", assuming " + vocabularyFile);
+        }
+        ComputationGraph net = ModelSerializer.restoreComputationGraph(modelFile);
+        precision = precision.orFallback();
+        if (precision.isReduced()) net = net.convertDataType(precision.getDataType());
+        Seq2SeqInference inference = new Seq2SeqInference(net, textParser, vocabulary);
+        if (ModelSerializer.listObjectsInFile(modelFile).contains(Seq2SeqModel.TOKEN_COUNTS))
+            inference.setTokenCounts(ModelSerializer.<long[]>getObjectFromFile(modelFile, Seq2SeqModel.TOKEN_COUNTS));
+        return inference;
+    }
+
+    /**
+     * Label token counts of the training corpus, used by setShortlist(int).
+     */
+    public void setTokenCounts(long[] tokenCounts) {
+        this.tokenCounts = tokenCounts;
+    }
+
+    /**
+     * Restricts decoding to the size most frequent label tokens of the training corpus and <eos>.
+     * 0 decodes over the whole vocabulary again.
+     */
+    public synchronized void setShortlist(int size) {
+        if (size <= 0) {
+            setShortlist((int[]) null);
+            return;
+        }
+        if (this.tokenCounts == null) throw new IllegalStateException("No token counts to pick a shortlist from");
+        setShortlist(shortlist(this.tokenCounts, size));
+    }
+
+    /**
+     * Restricts decoding to the given token ids, <eos> is always added. null decodes over the whole vocabulary.
+     */
+    public synchronized void setShortlist(int[] ids) {
+        if (ids == null) {
+            this.shortlist = null;
+        } else {
+            int[] sorted = Arrays.copyOf(ids, ids.length + 1);
+            sorted[ids.length] = EOS;
+            this.shortlist = Arrays.stream(sorted).distinct().sorted().toArray();
+            if (this.shortlist[0] < 0 || this.shortlist[this.shortlist.length - 1] >= this.dictSize)
+                throw new IllegalArgumentException("Shortlist ids must be in [0, " + this.dictSize + ")");
+        }
+        this.decoderNet = buildDecoder();
+    }
+
+    public int[] getShortlist() {
+        return this.shortlist;
+    }
+
+    /**
+     * @return the ids of the size largest counts, ties broken by the smaller id
+     */
+    public static int[] shortlist(long[] counts, int size) {
+        return IntStream.range(0, counts.length)
+                .boxed()
+                .sorted((a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : Integer.compare(a, b))
+                .limit(size)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private ComputationGraph buildDecoder() {
+        ComputationGraphConfiguration.GraphBuilder graphBuilder =
+                new NeuralNetConfiguration.Builder()
+                        .dataType(net.params().dataType())
+                        .graphBuilder()
+                        .addInputs("decoderLine", "thoughtLine")
+                        .setInputTypes(InputType.recurrent(dictSize),
+                                InputType.recurrent(thoughtSize));
+        if (indexMode) {
+            graphBuilder
+                    .addLayer("embeddingDecoder", layerConf("embeddingDecoder"), "decoderLine")
+                    .addVertex("merge",
+                            new MergeVertex(),
+                            "embeddingDecoder", "thoughtLine");
+        } else {
+            graphBuilder
+                    .addVertex("merge",
+                            new MergeVertex(),
+                            "decoderLine", "thoughtLine");
+        }
+        org.deeplearning4j.nn.conf.layers.Layer outputConf = layerConf("output");
+        if (shortlist != null) ((FeedForwardLayer) outputConf).setNOut(shortlist.length);
+        graphBuilder
+                .addLayer("decoder", layerConf("decoder"), "merge")
+                .addLayer("output", outputConf, "decoder")
+                .setOutputs("output");
+        ComputationGraph decoder = new ComputationGraph(graphBuilder.build());
+        decoder.init();
+        if (indexMode) decoder.getLayer("embeddingDecoder").setParams(net.getLayer("embeddingDecoder").params());
+        decoder.getLayer("decoder").setParams(net.getLayer("decoder").params());
+        if (shortlist == null) {
+            decoder.getLayer("output").setParams(net.getLayer("output").params());
+        } else {
+            org.deeplearning4j.nn.api.Layer output = net.getLayer("output");
+            decoder.getLayer("output").setParam(DefaultParamInitializer.WEIGHT_KEY,
+                    output.getParam(DefaultParamInitializer.WEIGHT_KEY).getColumns(shortlist));
+            decoder.getLayer("output").setParam(DefaultParamInitializer.BIAS_KEY,
+                    output.getParam(DefaultParamInitializer.BIAS_KEY).getColumns(shortlist));
+        }
+        return decoder;
+    }
+
+    // decoder output column to token id
+    private int tokenOf(int column) {
+        return this.shortlist == null ? column : this.shortlist[column];
+    }
+
+    private int outputSize() {
+        return this.shortlist == null ? this.dictSize : this.shortlist.length;
+    }
+
+    private org.deeplearning4j.nn.conf.layers.Layer layerConf(String name) {
+        return net.getLayer(name).conf().getLayer().clone();
+    }
+
+    public synchronized List<String> reply(List<String> texts, Seq2SeqDecodeOptions options) {
+        List<int[]> queries = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            queries.add(text2ids(text));
+        }
+        List<int[]> replies = decode(queries, options);
+        List<String> result = new ArrayList<>(replies.size());
+        for (int[] reply : replies) {
+            result.add(ids2text(reply));
+        }
+        return result;
+    }
+
+    public int[] text2ids(String text) {
+        return this.textParser.parse(text).stream().mapToInt(str -> this.vocabulary.getId(str, UNK)).toArray();
+    }
+
+    public String ids2text(int[] ids) {
+        StringBuilder builder = new StringBuilder();
+        for (int id : ids) {
+            String word = this.vocabulary.getWord(id);
+            builder.append(word != null ? word : "<unk>");
+        }
+        return builder.toString();
+    }
+
+    public synchronized List<int[]> decode(List<int[]> queries, Seq2SeqDecodeOptions options) {
+        return decodeThoughts(encode(queries), options);
+    }
+
+    /**
+     * Runs the encoder over a batch of token id sequences.
+     * @return the thought vectors, [queries, thoughtSize]
+     */
+    public synchronized INDArray encode(List<int[]> queries) {
+        int n = queries.size();
+        int length = 1;
+        for (int[] query : queries) {
+            length = Math.max(length, query.length);
+        }
+        INDArray input = Nd4j.zeros(n, 1, length);
+        INDArray inputMask = Nd4j.zeros(n, length);
+        for (int j = 0; j < n; j++) {
+            int[] query = queries.get(j);
+            if (query.length == 0) {
+                input.putScalar(new int[]{j, 0, 0}, UNK);
+                inputMask.putScalar(j, 0, 1.0);
+            }
+            for (int t = 0; t < query.length; t++) {
+                input.putScalar(new int[]{j, 0, t}, query[t]);
+                inputMask.putScalar(j, t, 1.0);
+            }
+        }
+        // the decoder half only has to be fed a single step to get the thought vector out
+        INDArray decoderStub = Nd4j.zeros(n, this.indexMode ? 1 : this.dictSize, 1);
+        INDArray decoderStubMask = Nd4j.ones(n, 1);
+        this.net.setLayerMaskArrays(new INDArray[]{inputMask, decoderStubMask}, null);
+        try {
+            Map<String, INDArray> activations =
+                    this.net.feedForward(new INDArray[]{input, decoderStub}, false, false);
+            return activations.get("thoughtVector").dup();
+        } finally {
+            this.net.clearLayerMaskArrays();
+        }
+    }
+
+    /**
+     * Decodes from thought vectors computed by encode.
+     */
+    public synchronized List<int[]> decodeThoughts(INDArray thought, Seq2SeqDecodeOptions options) {
+        if (options.getBeamWidth() == 1) return greedy(thought, options.getMaxLength());
+        return beamSearch(thought, options);
+    }
+
+    private List<int[]> greedy(INDArray thought, int maxLength) {
+        int n = thought.rows();
+        INDArray thoughtStep = thought.reshape(n, this.thoughtSize, 1);
+        int[] tokens = new int[n];
+        Arrays.fill(tokens, GO);
+        int[][] output = new int[n][maxLength];
+        int[] lengths = new int[n];
+        boolean[] finished = new boolean[n];
+        int alive = n;
+
+        this.decoderNet.rnnClearPreviousState();
+        for (int step = 0; step < maxLength && alive > 0; step++) {
+            INDArray logProbabilities = stepDecoder(tokens, thoughtStep);
+            INDArray best = Nd4j.argMax(logProbabilities, 1);
+            for (int j = 0; j < n; j++) {
+                if (finished[j]) continue;
+                tokens[j] = tokenOf(best.getInt(j));
+                if (tokens[j] == EOS) {
+                    finished[j] = true;
+                    --alive;
+                } else {
+                    output[j][lengths[j]++] = tokens[j];
+                }
+            }
+        }
+        this.decoderNet.rnnClearPreviousState();
+
+        List<int[]> result = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            result.add(Arrays.copyOf(output[j], lengths[j]));
+        }
+        return result;
+    }
+
+    private List<int[]> beamSearch(INDArray thought, Seq2SeqDecodeOptions options) {
+        int n = thought.rows();
+        int beam = options.getBeamWidth();
+        int maxLength = options.getMaxLength();
+        int rows = n * beam;
+
+        // row q * beam + k holds hypothesis k of query q
+        int[] rowIndex = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            rowIndex[r] = r / beam;
+        }
+        INDArray thoughtStep = thought.getRows(rowIndex).reshape(rows, this.thoughtSize, 1);
+
+        int[] tokens = new int[rows];
+        Arrays.fill(tokens, GO);
+        int[][] hypotheses = new int[rows][maxLength];
+        double[] scores = new double[rows];
+        // only the first hypothesis of every query is alive before the first step
+        for (int r = 0; r < rows; r++) {
+            scores[r] = r % beam == 0 ? 0.0 : Double.NEGATIVE_INFINITY;
+        }
+        List<List<Finished>> finished = new ArrayList<>(n);
+        for (int q = 0; q < n; q++) {
+            finished.add(new ArrayList<>());
+        }
+
+        this.decoderNet.rnnClearPreviousState();
+        for (int step = 0; step < maxLength; step++) {
+            double[] logProbabilities = stepDecoder(tokens, thoughtStep).dup('c').data().asDouble();
+
+            int[] parents = new int[rows];
+            int[] nextTokens = new int[rows];
+            double[] nextScores = new double[rows];
+            boolean anyAlive = false;
+            for (int q = 0; q < n; q++) {
+                List<Finished> done = finished.get(q);
+                if (done.size() >= beam) {
+                    // keep the rows of a finished query dead
+                    for (int k = 0; k < beam; k++) {
+                        parents[q * beam + k] = q * beam;
+                        nextTokens[q * beam + k] = EOS;
+                        nextScores[q * beam + k] = Double.NEGATIVE_INFINITY;
+                    }
+                    continue;
+                }
+                PriorityQueue<Candidate> top = topCandidates(logProbabilities, scores, q, beam);
+                Candidate[] candidates = top.toArray(new Candidate[0]);
+                Arrays.sort(candidates, (a, b) -> Double.compare(b.score, a.score));
+                int k = 0;
+                for (Candidate candidate : candidates) {
+                    if (candidate.token == EOS) {
+                        if (done.size() < beam)
+                            done.add(new Finished(hypotheses[candidate.row], step,
+                                    candidate.score / lengthPenalty(step + 1, options.getLengthPenalty())));
+                        continue;
+                    }
+                    // the rest of the candidates only matter if they end here
+                    if (k == beam) continue;
+                    int row = q * beam + k++;
+                    parents[row] = candidate.row;
+                    nextTokens[row] = candidate.token;
+                    nextScores[row] = candidate.score;
+                    anyAlive = true;
+                }
+                for (; k < beam; k++) {
+                    parents[q * beam + k] = q * beam;
+                    nextTokens[q * beam + k] = EOS;
+                    nextScores[q * beam + k] = Double.NEGATIVE_INFINITY;
+                }
+            }
+            if (!anyAlive) break;
+
+            int[][] nextHypotheses = new int[rows][];
+            for (int r = 0; r < rows; r++) {
+                nextHypotheses[r] = hypotheses[parents[r]].clone();
+                nextHypotheses[r][step] = nextTokens[r];
+            }
+            hypotheses = nextHypotheses;
+            tokens = nextTokens;
+            scores = nextScores;
+            reorderState(parents);
+
+            if (step == maxLength - 1) {
+                for (int r = 0; r < rows; r++) {
+                    if (scores[r] == Double.NEGATIVE_INFINITY) continue;
+                    finished.get(r / beam).add(new Finished(hypotheses[r], maxLength,
+                            scores[r] / lengthPenalty(maxLength, options.getLengthPenalty())));
+                }
+            }
+        }
+        this.decoderNet.rnnClearPreviousState();
+
+        List<int[]> result = new ArrayList<>(n);
+        for (int q = 0; q < n; q++) {
+            Finished best = null;
+            for (Finished candidate : finished.get(q)) {
+                if (best == null || candidate.score > best.score) best = candidate;
+            }
+            result.add(best == null ? new int[0] : best.tokens);
+        }
+        return result;
+    }
+
+    private PriorityQueue<Candidate> topCandidates(double[] logProbabilities, double[] scores, int query, int beam) {
+        PriorityQueue<Candidate> top = new PriorityQueue<>(beam * 2 + 1, (a, b) -> Double.compare(a.score, b.score));
+        // beam continuations plus beam hypotheses that may end here
+        int keep = beam * 2;
+        for (int k = 0; k < beam; k++) {
+            int row = query * beam + k;
+            if (scores[row] == Double.NEGATIVE_INFINITY) continue;
+            int width = outputSize();
+            int base = row * width;
+            for (int column = 0; column < width; column++) {
+                double score = scores[row] + logProbabilities[base + column];
+                if (top.size() < keep) {
+                    top.add(new Candidate(row, tokenOf(column), score));
+                } else if (score > top.peek().score) {
+                    top.poll();
+                    top.add(new Candidate(row, tokenOf(column), score));
+                }
+            }
+        }
+        return top;
+    }
+
+    // feeds one token per row, returns log probabilities [rows, outputSize()]
+    private INDArray stepDecoder(int[] tokens, INDArray thoughtStep) {
+        int rows = tokens.length;
+        INDArray input = Nd4j.zeros(rows, this.indexMode ? 1 : this.dictSize, 1);
+        for (int r = 0; r < rows; r++) {
+            if (this.indexMode) input.putScalar(new int[]{r, 0, 0}, tokens[r]);
+            else input.putScalar(new int[]{r, tokens[r], 0}, 1.0);
+        }
+        INDArray output = this.decoderNet.rnnTimeStep(input, thoughtStep)[0];
+        return Transforms.log(output.reshape(rows, outputSize()), true);
+    }
+
+    private void reorderState(int[] parents) {
+        Map<String, INDArray> state = this.decoderNet.rnnGetPreviousState("decoder");
+        for (Map.Entry<String, INDArray> entry : state.entrySet()) {
+            entry.setValue(entry.getValue().getRows(parents));
+        }
+        this.decoderNet.rnnSetPreviousState("decoder", state);
+    }
+
+    private static double lengthPenalty(int length, double alpha) {
+        return Math.pow((5.0 + length) / 6.0, alpha);
+    }
+
+    public static void main(String... args) throws IOException {
+        Seq2SeqInference inference = Seq2SeqInference.load(
+                new File("resources/model.bin"),
+                new File("resources/vocabulary.bin"),
+                new PooledJapaneseTextParser());
+        Seq2SeqDecodeOptions options = new Seq2SeqDecodeOptions(5, 22, 0.6);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            System.out.println(inference.reply(Collections.singletonList(line), options).get(0));
+        }
+    }
+
+    private static class Candidate {
+        private int row;
+        private int token;
+        private double score;
+
+        private Candidate(int row, int token, double score) {
+            this.row = row;
+            this.token = token;
+            this.score = score;
+        }
+    }
+
+    private static class Finished {
+        private int[] tokens;
+        private double score;
+
+        private Finished(int[] hypothesis, int length, double score) {
+            this.tokens = Arrays.copyOf(hypothesis, length);
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load against a local Seq2SeqServer: every client sends its next request
+ * as soon as the previous reply arrives.
+ *
+ *   Seq2SeqLoadGenerator [port] [clients] [seconds]
+ */
+public class Seq2SeqLoadGenerator {
+    private static final String[] UTTERANCES = {
+            "こんにちは", "おはよう", "元気ですか", "今日はいい天気ですね", "おやすみなさい", "ありがとう"
+    };
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        URL replyUrl = new URL("http://127.0.0.1:" + port + "/reply");
+
+        LatencyRecorder latency = new LatencyRecorder(100000);
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            pool.submit(() -> {
+                int i = client;
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    try {
+                        post(replyUrl, UTTERANCES[i++ % UTTERANCES.length]);
+                        latency.record(System.nanoTime() - start);
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+        System.out.println("clients " + clients);
+        System.out.println("requests " + latency.getCount() + " errors " + errors.get());
+        System.out.println("throughput/s " + latency.getCount() / (double) seconds);
+        System.out.println("latency_ms_p50 " + latency.percentile(50) / 1e6);
+        System.out.println("latency_ms_p99 " + latency.percentile(99) / 1e6);
+        System.out.println(get(new URL("http://127.0.0.1:" + port + "/stats")));
+    }
+
+    private static String post(URL url, String text) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return read(connection);
+    }
+
+    private static String get(URL url) throws IOException {
+        return read((HttpURLConnection) url.openConnection());
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        if (connection.getResponseCode() != 200)
+            throw new IOException("HTTP " + connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
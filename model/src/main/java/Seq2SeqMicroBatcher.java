@@ -0,0 +1,241 @@
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrent reply requests into batches decoded together by one Seq2SeqInference.
+ * A batch is dispatched once it holds maxBatchSize requests or its oldest request
+ * has waited maxDelayMillis, whichever comes first. Requests of a batch are decoded together per decode options.
+ *
+ * With a Seq2SeqResponseCache, cached replies are answered without decoding, and only queries
+ * without a cached thought vector run through the encoder.
+ */
+public class Seq2SeqMicroBatcher implements AutoCloseable {
+    // the inference and its version are swapped together, a batch uses one pair throughout
+    private volatile Model model;
+    private volatile Seq2SeqResponseCache cache;
+    private Seq2SeqDecodeOptions options;
+    private int maxBatchSize;
+    private long maxDelayNanos;
+
+    private LinkedBlockingQueue<Pending> queue;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    private LatencyRecorder latency;
+    private LatencyRecorder batchSizes;
+
+    public Seq2SeqMicroBatcher(Seq2SeqInference inference,
+                               Seq2SeqDecodeOptions options,
+                               int maxBatchSize,
+                               long maxDelayMillis) {
+        this.model = new Model(inference, null);
+        this.options = options;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new LinkedBlockingQueue<>();
+        this.latency = new LatencyRecorder(10000);
+        this.batchSizes = new LatencyRecorder(1000);
+
+        this.running = true;
+        this.dispatcher = new Thread(this::dispatch, "seq2seq-micro-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Caches replies and thought vectors, null turns caching off.
+     * The model version of the cache is taken as the version of the current model.
+     */
+    public void setCache(Seq2SeqResponseCache cache) {
+        if (cache != null) this.model = new Model(this.model.inference, cache.getModelVersion());
+        this.cache = cache;
+    }
+
+    public Seq2SeqDecodeOptions getOptions() {
+        return this.options;
+    }
+
+    public Seq2SeqResponseCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Decodes later batches with another model, and invalidates the cache if modelVersion changed.
+     */
+    public void setInference(Seq2SeqInference inference, String modelVersion) {
+        this.model = new Model(inference, modelVersion);
+        if (this.cache != null) this.cache.setModelVersion(modelVersion);
+    }
+
+    public CompletableFuture<String> submit(String text) {
+        return submit(text, this.options);
+    }
+
+    public CompletableFuture<String> submit(String text, Seq2SeqDecodeOptions options) {
+        Pending pending = new Pending(text, options);
+        if (!this.running) {
+            pending.future.completeExceptionally(new IllegalStateException("Micro batcher is closed"));
+        } else {
+            this.queue.add(pending);
+        }
+        return pending.future;
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(this.maxBatchSize);
+        while (this.running) {
+            try {
+                Pending first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = first.enqueued + this.maxDelayNanos;
+                while (batch.size() < this.maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0
+                            ? this.queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : this.queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            Map<Seq2SeqDecodeOptions, List<Pending>> byOptions = new LinkedHashMap<>();
+            for (Pending pending : batch) {
+                byOptions.computeIfAbsent(pending.options, options -> new ArrayList<>()).add(pending);
+            }
+            for (Map.Entry<Seq2SeqDecodeOptions, List<Pending>> group : byOptions.entrySet()) {
+                try {
+                    if (this.cache != null) replyCached(group.getValue(), group.getKey());
+                    else reply(group.getValue(), group.getKey());
+                } catch (RuntimeException e) {
+                    for (Pending pending : group.getValue()) {
+                        pending.future.completeExceptionally(e);
+                    }
+                }
+            }
+            this.batchSizes.record(batch.size());
+            batch.clear();
+        }
+
+        Pending pending;
+        while ((pending = this.queue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("Micro batcher is closed"));
+        }
+    }
+
+    private void reply(List<Pending> group, Seq2SeqDecodeOptions options) {
+        List<String> texts = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            texts.add(pending.text);
+        }
+        List<String> replies = this.model.inference.reply(texts, options);
+        for (int i = 0; i < group.size(); i++) {
+            complete(group.get(i), replies.get(i));
+        }
+    }
+
+    private void replyCached(List<Pending> group, Seq2SeqDecodeOptions options) {
+        Model model = this.model;
+        Seq2SeqInference inference = model.inference;
+        String modelVersion = model.version;
+        Seq2SeqResponseCache cache = this.cache;
+
+        List<Pending> misses = new ArrayList<>(group.size());
+        List<int[]> missIds = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            int[] ids = inference.text2ids(pending.text);
+            String reply = cache.getResponse(modelVersion, ids, options);
+            if (reply != null) {
+                complete(pending, reply);
+            } else {
+                misses.add(pending);
+                missIds.add(ids);
+            }
+        }
+        if (misses.isEmpty()) return;
+
+        INDArray[] thoughts = new INDArray[misses.size()];
+        List<int[]> encode = new ArrayList<>();
+        for (int i = 0; i < thoughts.length; i++) {
+            thoughts[i] = cache.getThought(modelVersion, missIds.get(i));
+            if (thoughts[i] == null) encode.add(missIds.get(i));
+        }
+        if (!encode.isEmpty()) {
+            INDArray encoded = inference.encode(encode);
+            int next = 0;
+            for (int i = 0; i < thoughts.length; i++) {
+                if (thoughts[i] != null) continue;
+                thoughts[i] = encoded.getRow(next++, true).dup();
+                cache.putThought(modelVersion, missIds.get(i), thoughts[i]);
+            }
+        }
+
+        List<int[]> replies = inference.decodeThoughts(Nd4j.vstack(thoughts), options);
+        for (int i = 0; i < misses.size(); i++) {
+            String reply = inference.ids2text(replies.get(i));
+            cache.putResponse(modelVersion, missIds.get(i), options, reply);
+            complete(misses.get(i), reply);
+        }
+    }
+
+    private static class Model {
+        private final Seq2SeqInference inference;
+        private final String version;
+
+        private Model(Seq2SeqInference inference, String version) {
+            this.inference = inference;
+            this.version = version;
+        }
+    }
+
+    private void complete(Pending pending, String reply) {
+        this.latency.record(System.nanoTime() - pending.enqueued);
+        pending.future.complete(reply);
+    }
+
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    public long getCompleted() {
+        return this.latency.getCount();
+    }
+
+    public double getLatencyMillis(double percentile) {
+        return this.latency.percentile(percentile) / 1e6;
+    }
+
+    public double getMedianBatchSize() {
+        return this.batchSizes.percentile(50);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.running = false;
+        this.dispatcher.join();
+    }
+
+    private static class Pending {
+        private String text;
+        private Seq2SeqDecodeOptions options;
+        private long enqueued;
+        private CompletableFuture<String> future;
+
+        private Pending(String text, Seq2SeqDecodeOptions options) {
+            this.text = text;
+            this.options = options;
+            this.enqueued = System.nanoTime();
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
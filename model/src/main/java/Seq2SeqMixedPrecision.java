@@ -0,0 +1,96 @@
+import org.deeplearning4j.nn.gradient.DefaultGradient;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.optimize.api.TrainingListener;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Map;
+
+/**
+ * Mixed precision training of an FP32 network. Forward and backward passes run in a copy of the network
+ * converted to a reduced precision. Its gradients are cast to FP32, go through the updater of the FP32
+ * network and are applied to the FP32 master weights, which are copied into the working copy before
+ * every step. Updates below the resolution of half floats still accumulate in the master weights.
+ *
+ * There is no loss scaling. Gradients are renormalized per layer, but very small FP16 gradients can
+ * still underflow to zero. BF16 has the exponent range of FP32.
+ *
+ * The listeners of the FP32 network are called as ComputationGraph.fit would, with its master weights
+ * and the score of the reduced precision pass.
+ */
+public class Seq2SeqMixedPrecision {
+    private ComputationGraph master;
+    private ComputationGraph working;
+    private Seq2SeqPrecision precision;
+
+    public Seq2SeqMixedPrecision(ComputationGraph master, Seq2SeqPrecision precision) {
+        this.master = master;
+        this.precision = precision;
+        this.working = master.convertDataType(precision.getDataType());
+        this.working.setListeners();
+    }
+
+    public Seq2SeqPrecision getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Fits the batches left in the current macrobatch, like ComputationGraph.fit(iterator).
+     */
+    public void fit(MultiDataSetIterator iterator) {
+        for (TrainingListener listener : this.master.getListeners()) {
+            listener.onEpochStart(this.master);
+        }
+        while (iterator.hasNext()) {
+            step(iterator.next());
+        }
+        for (TrainingListener listener : this.master.getListeners()) {
+            listener.onEpochEnd(this.master);
+        }
+        this.master.getConfiguration().setEpochCount(this.master.getConfiguration().getEpochCount() + 1);
+    }
+
+    /**
+     * One training step.
+     * @return the score of the batch, computed in the reduced precision
+     */
+    public double step(MultiDataSet batch) {
+        this.working.params().assign(this.master.params());
+        this.working.setInputs(batch.getFeatures());
+        this.working.setLabels(batch.getLabels());
+        this.working.setLayerMaskArrays(batch.getFeaturesMaskArrays(), batch.getLabelsMaskArrays());
+        this.working.computeGradientAndScore();
+        double score = this.working.score();
+        Gradient gradient = toMaster(this.working.gradient());
+        this.working.clearLayerMaskArrays();
+
+        // an external gradient is turned into the update in place
+        int iteration = this.master.getIterationCount();
+        this.master.getUpdater().update(gradient, iteration, this.master.getEpochCount(),
+                (int) batch.getFeatures(0).size(0), LayerWorkspaceMgr.noWorkspaces());
+        this.master.params().subi(gradient.gradient());
+        this.master.getConfiguration().setIterationCount(iteration + 1);
+        this.master.setScore(score);
+        for (TrainingListener listener : this.master.getListeners()) {
+            listener.iterationDone(this.master, iteration, this.master.getEpochCount());
+        }
+        return score;
+    }
+
+    // the working gradient in FP32, with the per-parameter views the updater normalizes layer by layer
+    private static Gradient toMaster(Gradient gradient) {
+        INDArray flat = gradient.gradient().castTo(DataType.FLOAT);
+        Gradient result = new DefaultGradient(flat);
+        for (Map.Entry<String, INDArray> variable : gradient.gradientForVariable().entrySet()) {
+            INDArray view = variable.getValue();
+            result.setGradientFor(variable.getKey(),
+                    Nd4j.create(flat.data(), view.shape(), view.stride(), view.offset(), view.ordering()));
+        }
+        return result;
+    }
+}
@@ -17,18 +17,41 @@ import org.deeplearning4j.ui.stats.StatsListener;
 import org.deeplearning4j.ui.storage.FileStatsStorage;
 import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.learning.config.RmsProp;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.nd4j.linalg.lossfunctions.impl.LossSparseMCXENT;
 
 import java.io.File;
 import java.io.IOException;
 
 public class Seq2SeqModel {
+    // key of the checksum of the training vocabulary in saved model files
+    public static final String VOCABULARY_CHECKSUM = "vocabularyChecksum";
+    public static final String TOKEN_COUNTS = "tokenCounts";
+
     private Seq2SeqCustomDataSetIterator dataSetIterator;
     private int dictSize;
     private int featureMaxLength;
     private File networkFile;
     private File backupFile;
+    private boolean indexMode = false;
+    private int negatives = 0;
+    private int embeddingSize = 128 * 2;
+    private int hiddenSize = 512 * 2;
+    private double learningRate = 5e-2;
+    private File statsFile = new File("resources/UIStorage.bin");
+    private long[] tokenCounts;
+    private boolean distillation = false;
+    private Seq2SeqPrecision precision = Seq2SeqPrecision.FP32;
+    private Seq2SeqMixedPrecision mixedPrecision;
+    private Vocabulary vocabulary;
+    private Seq2SeqCheckpointer checkpointer;
+    private Seq2SeqParallelTrainer parallelTrainer;
+    private TrainingMetrics metrics;
+    private Seq2SeqEvaluator evaluator;
+    private int startEpoch = 1;
+    private int startBatch = 0;
 
     private ComputationGraph net;
 
@@ -48,11 +71,161 @@ public class Seq2SeqModel {
         net = ModelSerializer.restoreComputationGraph(file);
     }
 
+    public ComputationGraph getNet() {
+        return this.net;
+    }
+
+    public int getDictSize() {
+        return this.dictSize;
+    }
+
+    /**
+     * The vocabulary the corpus ids come from, its checksum is stored in saved models.
+     */
+    public void setVocabulary(Vocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    /**
+     * Checkpoints replace the periodic synchronous saves of train.
+     */
+    public void setCheckpointer(Seq2SeqCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Records data loading, fit and checkpoint timings of train. Set after the checkpointer
+     * and the data-parallel mode so they record too.
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+        this.dataSetIterator.setMetrics(metrics);
+        if (this.checkpointer != null) this.checkpointer.setMetrics(metrics);
+        if (this.parallelTrainer != null) this.parallelTrainer.setMetrics(metrics);
+    }
+
+    /**
+     * Evaluates a snapshot after every epoch without blocking training,
+     * and stops training when the evaluator says so.
+     */
+    public void setEvaluator(Seq2SeqEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Trains workers replicas of the initialized network on partitions of the iterator,
+     * averaging them every averagingFrequency batches. Passing workers <= 1 goes back to one replica.
+     */
+    public void setDataParallel(int workers, int averagingFrequency) {
+        if (this.parallelTrainer != null) this.parallelTrainer.close();
+        this.parallelTrainer = workers > 1
+                ? new Seq2SeqParallelTrainer(this.net, this.dataSetIterator, workers, averagingFrequency)
+                : null;
+    }
+
+    /**
+     * Loads the parameters, the updater state and the training position of the latest checkpoint
+     * into the initialized network, so that train() continues where it stopped.
+     * @return false if there is no checkpoint to resume from
+     */
+    public boolean resume() throws IOException {
+        Seq2SeqCheckpointer.Checkpoint checkpoint = this.checkpointer.latest();
+        if (checkpoint == null) return false;
+        if (checkpoint.getSeed() != this.dataSetIterator.getSeed())
+            throw new IllegalStateException("Checkpoint batches were shuffled with seed " + checkpoint.getSeed()
+                    + ", the iterator uses " + this.dataSetIterator.getSeed());
+        ComputationGraph restored = ModelSerializer.restoreComputationGraph(checkpoint.getFile(), true);
+        this.net.setParams(restored.params());
+        if (restored.getUpdater().getStateViewArray() != null)
+            this.net.getUpdater().getStateViewArray().assign(restored.getUpdater().getStateViewArray());
+        this.net.getConfiguration().setIterationCount(restored.getConfiguration().getIterationCount());
+        this.net.getConfiguration().setEpochCount(restored.getConfiguration().getEpochCount());
+        this.dataSetIterator.setEpoch(checkpoint.getIteratorEpoch());
+        this.startEpoch = checkpoint.getEpoch();
+        this.startBatch = checkpoint.getBatch();
+        System.out.println("Resuming from " + checkpoint.getFile() + ", " + checkpoint);
+        return true;
+    }
+
+    /**
+     * Feeds the decoder token ids through an embedding layer and trains on class index labels
+     * with a sparse cross entropy, instead of one-hot vectors of width dictSize.
+     * Must be set before initNetWork, switches the iterator to index mode as well.
+     */
+    public void setIndexMode(boolean indexMode) {
+        this.indexMode = indexMode;
+        this.dataSetIterator.setIndexMode(indexMode);
+    }
+
+    /**
+     * Width of the embeddings and of the encoder and decoder LSTMs, 256 and 1024 by default.
+     * Must be set before initNetWork.
+     */
+    public void setSizes(int embeddingSize, int hiddenSize) {
+        this.embeddingSize = embeddingSize;
+        this.hiddenSize = hiddenSize;
+    }
+
+    /**
+     * Learning rate of the RmsProp updater, 5e-2 by default. Must be set before initNetWork.
+     */
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * File the training UI statistics are stored in, null trains without the stats listener.
+     * Must be set before initNetWork.
+     */
+    public void setStatsFile(File statsFile) {
+        this.statsFile = statsFile;
+    }
+
+    /**
+     * Trains on the distributions of a teacher model cached in teacherCache, softened with temperature
+     * and mixed with the hard labels as alpha * teacher + (1 - alpha) * labels, see Seq2SeqDistiller.
+     * Needs one-hot mode, null goes back to hard labels.
+     */
+    public void setDistillation(TeacherTopKCache teacherCache, double temperature, double alpha) {
+        this.dataSetIterator.setSoftTargets(teacherCache, temperature, alpha);
+        this.distillation = teacherCache != null;
+    }
+
+    /**
+     * Trains the output layer on a sampled softmax over negatives classes drawn by label frequency,
+     * see SampledSoftmaxOutputLayer. 0 turns it off. Needs index mode and must be set before initNetWork.
+     */
+    public void setSampledSoftmax(int negatives) {
+        this.negatives = negatives;
+    }
+
+    /**
+     * @return the label token counts of the training corpus, null without an iterator
+     */
+    public long[] getTokenCounts() {
+        if (this.tokenCounts == null && this.dataSetIterator != null)
+            this.tokenCounts = this.dataSetIterator.countLabelTokens();
+        return this.tokenCounts;
+    }
+
+    /**
+     * Runs the forward and backward passes in FP16 or BF16 on FP32 master weights, see Seq2SeqMixedPrecision.
+     * Falls back to FP32 if the backend does not support the type. Must be set before initNetWork,
+     * sets the precision of the iterator as well. Checkpoints and saved models stay FP32.
+     */
+    public void setPrecision(Seq2SeqPrecision precision) {
+        this.precision = precision.orFallback();
+        this.dataSetIterator.setPrecision(this.precision);
+    }
+
     public void initNetWork(boolean showUI) {
+        if (negatives > 0 && !indexMode)
+            throw new IllegalStateException("The sampled softmax needs index mode");
         final NeuralNetConfiguration.Builder builder =
                 new NeuralNetConfiguration.Builder()
                         .seed(246)
-                        .updater(new RmsProp(5e-2))
+                        .dataType(DataType.FLOAT)
+                        .updater(new RmsProp(learningRate))
                         .weightInit(WeightInit.XAVIER)
                         .gradientNormalization(GradientNormalization.RenormalizeL2PerLayer);
 
@@ -69,13 +242,13 @@ public class Seq2SeqModel {
                         .addLayer("embeddingEncoder",
                                 new EmbeddingLayer.Builder()
                                         .nIn(dictSize)
-                                        .nOut(128 * 2)
+                                        .nOut(embeddingSize)
                                         .build(),
                                 "encoderLine")
                         .addLayer("encoder",
                                 new LSTM.Builder()
-                                        .nIn(128 * 2)
-                                        .nOut(512 * 2)
+                                        .nIn(embeddingSize)
+                                        .nOut(hiddenSize)
                                         .activation(Activation.TANH)
                                         .build(),
                                 "embeddingEncoder")
@@ -85,31 +258,69 @@ public class Seq2SeqModel {
                         .addVertex("dup",
                                 new DuplicateToTimeSeriesVertex("decoderLine"),
                                 "thoughtVector")
-                        .addVertex("merge",
-                                new MergeVertex(),
-                                "decoderLine","dup")
-                        .addLayer("decoder",
-                                new LSTM.Builder()
-                                    .nIn(dictSize + 512 * 2)
-                                    .nOut(512 * 2)
-                                    .activation(Activation.TANH)
+                        .setOutputs("output");
+        if (indexMode) {
+            graphBuilder
+                    .addLayer("embeddingDecoder",
+                            new EmbeddingLayer.Builder()
+                                    .nIn(dictSize)
+                                    .nOut(embeddingSize)
                                     .build(),
-                                "merge")
-                        .addLayer("output",
-                                new RnnOutputLayer.Builder()
-                                    .nIn(512 * 2)
+                            "decoderLine")
+                    .addVertex("merge",
+                            new MergeVertex(),
+                            "embeddingDecoder", "dup")
+                    .addLayer("decoder",
+                            new LSTM.Builder()
+                                .nIn(embeddingSize + hiddenSize)
+                                .nOut(hiddenSize)
+                                .activation(Activation.TANH)
+                                .build(),
+                            "merge")
+                    .addLayer("output",
+                            negatives > 0
+                                ? new SampledSoftmaxOutputLayer.Builder()
+                                    .nIn(hiddenSize)
+                                    .nOut(dictSize)
+                                    .negatives(negatives)
+                                    .tokenCounts(getTokenCounts())
+                                    .build()
+                                : new RnnOutputLayer.Builder()
+                                    .nIn(hiddenSize)
                                     .nOut(dictSize)
                                     .activation(Activation.SOFTMAX)
-                                    .lossFunction(LossFunctions.LossFunction.MCXENT)
+                                    .lossFunction(new LossSparseMCXENT())
                                     .build(),
-                                "decoder")
-                        .setOutputs("output");
+                            "decoder");
+        } else {
+            graphBuilder
+                    .addVertex("merge",
+                            new MergeVertex(),
+                            "decoderLine","dup")
+                    .addLayer("decoder",
+                            new LSTM.Builder()
+                                .nIn(dictSize + hiddenSize)
+                                .nOut(hiddenSize)
+                                .activation(Activation.TANH)
+                                .build(),
+                            "merge")
+                    .addLayer("output",
+                            new RnnOutputLayer.Builder()
+                                .nIn(hiddenSize)
+                                .nOut(dictSize)
+                                .activation(Activation.SOFTMAX)
+                                .lossFunction(LossFunctions.LossFunction.MCXENT)
+                                .build(),
+                            "decoder");
+        }
 
 
         net = new ComputationGraph(graphBuilder.build());
         net.init();
+        mixedPrecision = precision.isReduced() ? new Seq2SeqMixedPrecision(net, precision) : null;
 
-        StatsStorage statsStorage = new FileStatsStorage(new File("resources/UIStorage.bin"));
+        if (statsFile == null) return;
+        StatsStorage statsStorage = new FileStatsStorage(statsFile);
         statsStorage.removeAllListeners();
         if (showUI) {
             UIServer uiServer = UIServer.getInstance();
@@ -119,51 +330,176 @@ public class Seq2SeqModel {
     }
 
     public void train(int offset) throws IOException {
+        train(1, offset);
+    }
+
+    /**
+     * Trains from the position restored by resume, or from the start.
+     */
+    public void train() throws IOException {
+        train(this.startEpoch, this.startBatch);
+    }
+
+    private void train(int firstEpoch, int offset) throws IOException {
+        if (this.parallelTrainer != null) {
+            if (this.mixedPrecision != null)
+                throw new IllegalStateException("Data-parallel training runs in FP32 only");
+            if (this.distillation)
+                throw new IllegalStateException("Data-parallel training does not support distillation");
+            trainParallel(firstEpoch);
+            return;
+        }
         long lastSaveTime = System.currentTimeMillis();
-        for(int epoch = 1; epoch < 600; ++epoch) {
+        for(int epoch = firstEpoch; epoch < 600; ++epoch) {
             System.out.println("Epoch " + epoch);
-            if (epoch == 1) this.dataSetIterator.setCurrentBatch(offset);
+            if (epoch == firstEpoch) this.dataSetIterator.setCurrentBatch(offset);
             else this.dataSetIterator.reset();
             while(this.dataSetIterator.hasNextMacrobatch()) {
-                net.fit(this.dataSetIterator);
+                long start = System.nanoTime();
+                if (this.mixedPrecision != null) this.mixedPrecision.fit(this.dataSetIterator);
+                else net.fit(this.dataSetIterator);
+                if (this.metrics != null) this.metrics.recordFit(System.nanoTime() - start);
                 this.dataSetIterator.nextMacroBatch();
                 System.out.println("Batch = " + this.dataSetIterator.getCurrentBatch());
                 if (System.currentTimeMillis() - lastSaveTime > 100000) {
-                    saveModel();
+                    if (this.checkpointer != null) checkpoint(epoch);
+                    else saveModel();
                     lastSaveTime = System.currentTimeMillis();
                 }
             }
+            if (stopEarly(epoch)) break;
         }
+        if (this.checkpointer != null) checkpoint(600);
     }
 
-    private void saveModel() throws IOException {
+    // partitions restart at every epoch, so parallel training checkpoints between epochs only
+    private void trainParallel(int firstEpoch) throws IOException {
+        long lastSaveTime = System.currentTimeMillis();
+        for(int epoch = firstEpoch; epoch < 600; ++epoch) {
+            System.out.println("Epoch " + epoch + " on " + this.parallelTrainer.getWorkers() + " workers");
+            if (epoch != firstEpoch) this.dataSetIterator.reset();
+            long start = System.nanoTime();
+            long examples = this.parallelTrainer.getExamples();
+            this.parallelTrainer.fitEpoch(this.dataSetIterator.getEpoch());
+            System.out.printf("%.1f examples/s%n",
+                    (this.parallelTrainer.getExamples() - examples) / ((System.nanoTime() - start) / 1e9));
+            if (this.checkpointer != null && System.currentTimeMillis() - lastSaveTime > 100000) {
+                // resumes at the start of the next epoch
+                checkpoint(epoch + 1, 0, this.dataSetIterator.getEpoch() + 1);
+                lastSaveTime = System.currentTimeMillis();
+            }
+            if (stopEarly(epoch)) break;
+        }
+        if (this.checkpointer != null) checkpoint(600);
+    }
+
+    private boolean stopEarly(int epoch) {
+        if (this.evaluator == null) return false;
+        this.evaluator.evaluateAsync(this.net, epoch);
+        if (!this.evaluator.shouldStop()) return false;
+        System.out.println("Early stopping after epoch " + epoch);
+        return true;
+    }
+
+    private void checkpoint(int epoch) throws IOException {
+        checkpoint(epoch, this.dataSetIterator.getCurrentBatch(), this.dataSetIterator.getEpoch());
+    }
+
+    private void checkpoint(int epoch, int batch, int iteratorEpoch) throws IOException {
+        this.checkpointer.save(this.net, new Seq2SeqCheckpointer.Checkpoint(
+                epoch, batch, iteratorEpoch, this.dataSetIterator.getSeed()));
+    }
+
+    void saveModel() throws IOException {
         System.out.println("Saving the model");
         ModelSerializer.writeModel(this.net, this.backupFile, true);
+        if (this.vocabulary != null)
+            ModelSerializer.addObjectToFile(this.backupFile, VOCABULARY_CHECKSUM, this.vocabulary.getChecksum());
+        if (getTokenCounts() != null)
+            ModelSerializer.addObjectToFile(this.backupFile, TOKEN_COUNTS, getTokenCounts());
         System.out.println("Done.");
     }
 
+    /**
+     * @return the vocabulary written by the parser, null if there is none
+     */
+    static Vocabulary openVocabulary() throws IOException {
+        File vocabularyFile = new File("resources/vocabulary.bin");
+        return vocabularyFile.exists() ? Vocabulary.load(vocabularyFile) : null;
+    }
+
+    /**
+     * Iterates over the sharded corpus written by the parser, its single-file binary corpus,
+     * or the CSV one, whichever is found first.
+     */
+    static Seq2SeqCustomDataSetIterator openCorpus(int batchSize, int dictSize, int rowSize)
+            throws IOException, InterruptedException {
+        File shards = new File("resources/shards");
+        if (ShardedTokenCorpusWriter.shardFile(shards, "features", 0).exists()) {
+            return new Seq2SeqCustomDataSetIterator(
+                    ShardedTokenCorpus.open(shards, "features"),
+                    ShardedTokenCorpus.open(shards, "label"),
+                    batchSize,
+                    2,
+                    dictSize,
+                    rowSize);
+        }
+        File featuresBinary = new File("resources/features.bin");
+        File labelsBinary = new File("resources/label.bin");
+        if (featuresBinary.exists() && labelsBinary.exists()) {
+            return new Seq2SeqCustomDataSetIterator(
+                    new MappedTokenCorpus(featuresBinary),
+                    new MappedTokenCorpus(labelsBinary),
+                    batchSize,
+                    2,
+                    dictSize,
+                    rowSize);
+        }
+        return new Seq2SeqCustomDataSetIterator(
+                new File("resources/features.csv"),
+                new File("resources/label.csv"),
+                1,
+                batchSize,
+                2,
+                dictSize,
+                rowSize);
+    }
+
     public static void main(String... args) throws IOException, InterruptedException {
         int offset = 0;
         int dictSize = 780;
         int rowSize = 22;
+        Vocabulary vocabulary = openVocabulary();
+        if (vocabulary != null) dictSize = vocabulary.size();
+        Seq2SeqCustomDataSetIterator dataSetIterator = openCorpus(200, dictSize, rowSize);
+        if (dataSetIterator.getFeatures() instanceof ShardedTokenCorpus) dataSetIterator.setShuffleBuffer(100000, 246);
+        else dataSetIterator.setBucketing(4, 0, 246);
+        Seq2SeqCustomDataSetIterator heldOut = dataSetIterator.holdOut(0.02, 246);
+        dataSetIterator.setPrefetch(2, 4);
         Seq2SeqModel seq2SeqModel =
                 new Seq2SeqModel(
-                        new Seq2SeqCustomDataSetIterator(
-                                new File("resources/features.csv"),
-                                new File("resources/label.csv"),
-                                1,
-                                200,
-                                2,
-                                dictSize,
-                                rowSize),
+                        dataSetIterator,
                         dictSize,
                         rowSize,
                         new File("resources/network.bin"),
                         new File("resources/model.bin"));
+        seq2SeqModel.setVocabulary(vocabulary);
+        if (args.length > 0) seq2SeqModel.setPrecision(Seq2SeqPrecision.valueOf(args[0]));
         seq2SeqModel.initNetWork(true);
-        seq2SeqModel.train(offset);
+        TrainingMetrics metrics = new TrainingMetrics();
+        try (Seq2SeqCheckpointer checkpointer = new Seq2SeqCheckpointer(new File("resources/checkpoints"), 3);
+             TrainingMetricsExporter exporter = new TrainingMetricsExporter(metrics, "train", 9400, 60);
+             Seq2SeqEvaluator evaluator = new Seq2SeqEvaluator(seq2SeqModel.getNet(), heldOut,
+                     new Seq2SeqEarlyStopping(5, 1e-3), new File("resources/best-model.bin"))) {
+            evaluator.setBleu(200, rowSize);
+            seq2SeqModel.setCheckpointer(checkpointer);
+            seq2SeqModel.setMetrics(metrics);
+            seq2SeqModel.setEvaluator(evaluator);
+            if (seq2SeqModel.resume()) seq2SeqModel.train();
+            else seq2SeqModel.train(offset);
+        }
         seq2SeqModel.saveModel();
+        dataSetIterator.shutdownPrefetch();
         return;
     }
 }
-
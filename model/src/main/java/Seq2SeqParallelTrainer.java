@@ -0,0 +1,284 @@
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Data-parallel training on one machine: every worker thread fits its own replica of the network on
+ * its own partition of the iterator rows, and every averagingFrequency batches the parameters and
+ * updater states of the replicas are averaged into the network. With averagingFrequency 1 this is
+ * synchronous training on workers times larger batches.
+ *
+ * With a Seq2SeqProcessGroup the rows are partitioned over the workers of all processes and the
+ * averages are averaged across processes too.
+ *
+ *   Seq2SeqParallelTrainer [--workers 4] [--frequency 5] [--batches 200] [--processes 1] [--port 5700]
+ *
+ * reports the throughput and scaling efficiency of 1, 2, 4 ... workers on the first batches of the corpus.
+ * With --processes the job is started in that many local JVMs and efficiency is relative to one worker per process.
+ */
+public class Seq2SeqParallelTrainer implements AutoCloseable {
+    private ComputationGraph net;
+    private ComputationGraph[] replicas;
+    private List<Seq2SeqCustomDataSetIterator> partitions;
+    private int averagingFrequency;
+    private Seq2SeqProcessGroup processGroup;
+    private ExecutorService workers;
+
+    private LongAdder examples = new LongAdder();
+    private long globalExamples;
+    private TrainingMetrics metrics;
+
+    public Seq2SeqParallelTrainer(ComputationGraph net,
+                                  Seq2SeqCustomDataSetIterator iterator,
+                                  int workers,
+                                  int averagingFrequency) {
+        this(net, iterator, workers, averagingFrequency, null);
+    }
+
+    public Seq2SeqParallelTrainer(ComputationGraph net,
+                                  Seq2SeqCustomDataSetIterator iterator,
+                                  int workers,
+                                  int averagingFrequency,
+                                  Seq2SeqProcessGroup processGroup) {
+        this.net = net;
+        this.averagingFrequency = Math.max(1, averagingFrequency);
+        this.processGroup = processGroup;
+        int rank = processGroup == null ? 0 : processGroup.getRank();
+        int processes = processGroup == null ? 1 : processGroup.getSize();
+
+        this.replicas = new ComputationGraph[workers];
+        this.partitions = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            this.replicas[w] = net.clone();
+            this.replicas[w].setListeners();
+            this.partitions.add(iterator.partition(rank * workers + w, processes * workers));
+        }
+        AtomicInteger threadId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "seq2seq-trainer-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fit time is summed over the workers, the partitions record their own batches.
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+        for (Seq2SeqCustomDataSetIterator partition : this.partitions) {
+            partition.setMetrics(metrics);
+        }
+    }
+
+    public int getWorkers() {
+        return this.replicas.length;
+    }
+
+    /**
+     * Examples fitted by this process, and by all processes up to the last averaging.
+     */
+    public long getExamples() {
+        return this.examples.sum();
+    }
+
+    public long getGlobalExamples() {
+        return this.globalExamples;
+    }
+
+    /**
+     * Fits one pass over every partition, shuffled for the given iterator epoch.
+     * The replicas start from the current parameters of the network.
+     */
+    public void fitEpoch(int epoch) throws IOException {
+        startEpoch(epoch);
+        while (fitRound()) {
+            // every round ends with an averaging
+        }
+    }
+
+    public void startEpoch(int epoch) {
+        for (Seq2SeqCustomDataSetIterator partition : this.partitions) {
+            partition.setEpoch(epoch);
+            partition.setCurrentBatch(0);
+        }
+        broadcast();
+    }
+
+    /**
+     * Every worker fits up to averagingFrequency batches, then the replicas are averaged.
+     * @return false once every partition of every process is exhausted
+     */
+    public boolean fitRound() throws IOException {
+        List<Future<Boolean>> futures = new ArrayList<>(this.replicas.length);
+        for (int w = 0; w < this.replicas.length; w++) {
+            final int worker = w;
+            futures.add(this.workers.submit(() -> fitBatches(worker)));
+        }
+        boolean more = false;
+        try {
+            for (Future<Boolean> future : futures) {
+                more |= future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Training worker failed", e.getCause());
+        }
+        return average(more);
+    }
+
+    // returns whether the partition has batches left
+    private boolean fitBatches(int worker) {
+        Seq2SeqCustomDataSetIterator partition = this.partitions.get(worker);
+        ComputationGraph replica = this.replicas[worker];
+        for (int i = 0; i < this.averagingFrequency && partition.getCurrentBatch() < partition.getTotalBatches(); i++) {
+            long start = System.nanoTime();
+            MultiDataSet batch = partition.next();
+            replica.fit(batch);
+            if (this.metrics != null) this.metrics.recordFit(System.nanoTime() - start);
+            this.examples.add(batch.getFeatures(0).size(0));
+        }
+        return partition.getCurrentBatch() < partition.getTotalBatches();
+    }
+
+    private boolean average(boolean more) throws IOException {
+        INDArray params = this.net.params();
+        INDArray updaterState = this.net.getUpdater().getStateViewArray();
+        params.assign(this.replicas[0].params());
+        if (updaterState != null) updaterState.assign(this.replicas[0].getUpdater().getStateViewArray());
+        for (int w = 1; w < this.replicas.length; w++) {
+            params.addi(this.replicas[w].params());
+            if (updaterState != null) updaterState.addi(this.replicas[w].getUpdater().getStateViewArray());
+        }
+        params.divi(this.replicas.length);
+        if (updaterState != null) updaterState.divi(this.replicas.length);
+
+        double[] sums = {more ? 1 : 0, getExamples()};
+        if (this.processGroup != null) {
+            INDArray[] means = updaterState != null
+                    ? new INDArray[]{params, updaterState}
+                    : new INDArray[]{params};
+            this.processGroup.allReduce(means, sums);
+        }
+        this.globalExamples = (long) sums[1];
+        broadcast();
+        return sums[0] > 0;
+    }
+
+    // copies the parameters and the updater state of the network into every replica
+    private void broadcast() {
+        INDArray updaterState = this.net.getUpdater().getStateViewArray();
+        for (ComputationGraph replica : this.replicas) {
+            replica.setParams(this.net.params());
+            if (updaterState != null) replica.getUpdater().getStateViewArray().assign(updaterState);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.workers.shutdownNow();
+        for (Seq2SeqCustomDataSetIterator partition : this.partitions) {
+            partition.shutdownPrefetch();
+        }
+    }
+
+    private static ComputationGraph newNet(Seq2SeqCustomDataSetIterator iterator, int dictSize, int rowSize) {
+        Seq2SeqModel model = new Seq2SeqModel(iterator, dictSize, rowSize, null, null);
+        model.initNetWork(false);
+        model.getNet().setListeners();
+        return model.getNet();
+    }
+
+    // examples per second of this process over the given number of batches per worker
+    private static double measure(ComputationGraph net, Seq2SeqCustomDataSetIterator iterator, int workers,
+                                  int frequency, int batches, Seq2SeqProcessGroup processGroup) throws IOException {
+        try (Seq2SeqParallelTrainer trainer = new Seq2SeqParallelTrainer(net, iterator, workers, frequency, processGroup)) {
+            trainer.startEpoch(iterator.getEpoch());
+            // the first round warms up the replicas
+            trainer.fitRound();
+            long startExamples = trainer.getGlobalExamples();
+            long start = System.nanoTime();
+            int rounds = Math.max(1, batches / frequency);
+            for (int round = 0; round < rounds && trainer.fitRound(); round++) {
+                // measured rounds
+            }
+            return (trainer.getGlobalExamples() - startExamples) / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int frequency = 5;
+        int batches = 200;
+        int processes = 1;
+        int rank = -1;
+        int port = 5700;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--workers": workers = Integer.parseInt(args[i + 1]); break;
+                case "--frequency": frequency = Integer.parseInt(args[i + 1]); break;
+                case "--batches": batches = Integer.parseInt(args[i + 1]); break;
+                case "--processes": processes = Integer.parseInt(args[i + 1]); break;
+                case "--rank": rank = Integer.parseInt(args[i + 1]); break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Process> children = new ArrayList<>();
+        if (processes > 1 && rank < 0) {
+            rank = 0;
+            for (int child = 1; child < processes; child++) {
+                List<String> command = new ArrayList<>();
+                command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(Seq2SeqParallelTrainer.class.getName());
+                for (String arg : args) {
+                    command.add(arg);
+                }
+                command.add("--rank");
+                command.add(String.valueOf(child));
+                children.add(new ProcessBuilder(command).inheritIO().start());
+            }
+        }
+        rank = Math.max(rank, 0);
+
+        int dictSize = 780;
+        int rowSize = 22;
+        Vocabulary vocabulary = Seq2SeqModel.openVocabulary();
+        if (vocabulary != null) dictSize = vocabulary.size();
+        Seq2SeqCustomDataSetIterator iterator = Seq2SeqModel.openCorpus(200, dictSize, rowSize);
+        iterator.setBucketing(4, 0, 246);
+
+        try (Seq2SeqProcessGroup processGroup = processes > 1 ? new Seq2SeqProcessGroup(rank, processes, port) : null) {
+            double baseline = 0;
+            for (int n = 1; n <= workers; n = n < workers && n * 2 > workers ? workers : n * 2) {
+                double throughput = measure(newNet(iterator, dictSize, rowSize), iterator, n, frequency, batches, processGroup);
+                if (n == 1) baseline = throughput;
+                if (rank == 0) {
+                    System.out.printf("processes %d workers %d: %.1f examples/s, speedup %.2f, efficiency %.2f%n",
+                            processes, n, throughput, throughput / baseline,
+                            throughput / (baseline * n));
+                }
+                if (n == workers) break;
+            }
+        }
+        for (Process child : children) {
+            child.waitFor();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Averages arrays across the local JVM processes of one training job, standing in for several nodes.
+ * Rank 0 listens on a loopback port and reduces, the other ranks connect to it.
+ * Every process must call allReduce the same number of times with arrays of the same shapes.
+ */
+public class Seq2SeqProcessGroup implements AutoCloseable {
+    private int rank;
+    private int size;
+    private ServerSocket server;
+    // rank 0: one connection per other rank, other ranks: the connection to rank 0
+    private Socket[] sockets;
+    private DataInputStream[] inputs;
+    private DataOutputStream[] outputs;
+
+    public Seq2SeqProcessGroup(int rank, int size, int port) throws IOException {
+        this.rank = rank;
+        this.size = size;
+        if (rank == 0) {
+            this.server = new ServerSocket(port, size, InetAddress.getLoopbackAddress());
+            this.sockets = new Socket[size - 1];
+            this.inputs = new DataInputStream[size - 1];
+            this.outputs = new DataOutputStream[size - 1];
+            for (int i = 0; i < size - 1; i++) {
+                Socket socket = this.server.accept();
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int peer = input.readInt();
+                if (peer < 1 || peer >= size || this.sockets[peer - 1] != null)
+                    throw new IOException("Unexpected rank " + peer);
+                this.sockets[peer - 1] = socket;
+                this.inputs[peer - 1] = input;
+                this.outputs[peer - 1] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+        } else {
+            Socket socket = connect(port);
+            this.sockets = new Socket[]{socket};
+            this.inputs = new DataInputStream[]{new DataInputStream(new BufferedInputStream(socket.getInputStream()))};
+            this.outputs = new DataOutputStream[]{new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))};
+            this.outputs[0].writeInt(rank);
+            this.outputs[0].flush();
+        }
+    }
+
+    // rank 0 may still be starting
+    private static Socket connect(int port) throws IOException {
+        IOException last = null;
+        for (int attempt = 0; attempt < 600; attempt++) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+                return socket;
+            } catch (IOException e) {
+                last = e;
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while connecting to rank 0", interrupted);
+                }
+            }
+        }
+        throw last;
+    }
+
+    public int getRank() {
+        return this.rank;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Replaces every array by its mean over all processes, and every scalar by its sum.
+     */
+    public void allReduce(INDArray[] means, double[] sums) throws IOException {
+        if (this.size == 1) return;
+        if (this.rank == 0) {
+            for (DataInputStream input : this.inputs) {
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += input.readDouble();
+                }
+                for (INDArray mean : means) {
+                    mean.addi(Nd4j.read(input));
+                }
+            }
+            for (INDArray mean : means) {
+                mean.divi(this.size);
+            }
+            for (DataOutputStream output : this.outputs) {
+                write(output, means, sums);
+            }
+        } else {
+            write(this.outputs[0], means, sums);
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = this.inputs[0].readDouble();
+            }
+            for (INDArray mean : means) {
+                mean.assign(Nd4j.read(this.inputs[0]));
+            }
+        }
+    }
+
+    private static void write(DataOutputStream output, INDArray[] arrays, double[] scalars) throws IOException {
+        for (double scalar : scalars) {
+            output.writeDouble(scalar);
+        }
+        for (INDArray array : arrays) {
+            Nd4j.write(array, output);
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Socket socket : this.sockets) {
+            if (socket != null) socket.close();
+        }
+        if (this.server != null) this.server.close();
+    }
+}
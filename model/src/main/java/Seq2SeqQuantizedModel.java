@@ -0,0 +1,412 @@
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.layers.BaseLayer;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.DefaultParamInitializer;
+import org.deeplearning4j.nn.params.LSTMParamInitializer;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Int8 export of a trained Seq2SeqModel graph for CPU inference, without updater state.
+ *
+ * The embedding tables, LSTM and output weights are QuantizedMatrix with per-row scales, biases stay float.
+ * Matrices are stored with output units as rows, the decoder input weights are split into a token part
+ * (a lookup table of the LSTM input projection in one-hot mode) and a thought vector part, which is
+ * projected once per query instead of once per step.
+ *
+ * Decoding runs in plain Java, one query at a time, greedy only, and picks the argmax of the output logits
+ * without the softmax. Instances are immutable, so decode can be called from several threads.
+ *
+ * Layout, big-endian DataOutputStream:
+ *   header   int magic, int version, int flags (1 = index mode), long vocabulary checksum (0 if unknown)
+ *   sizes    int dictSize, int thoughtSize, int decoderSize
+ *   layers   encoder embedding, encoder LSTM, decoder token input, decoder LSTM, output
+ */
+public class Seq2SeqQuantizedModel {
+    static final int MAGIC = 0x53325351; // "S2SQ"
+    static final int VERSION = 1;
+
+    // WARNING: <unk> == 0, <eos> == 1 and <go> == 2 in the dictionary.
+    private static final int UNK = 0;
+    private static final int EOS = 1;
+    private static final int GO = 2;
+
+    private boolean indexMode;
+    private long vocabularyChecksum;
+    private int dictSize;
+    private int thoughtSize;
+    private int decoderSize;
+
+    private Embedding encoderEmbedding;
+    private Lstm encoder;
+    // index mode: embedding then input weights [4h, embedding], one-hot mode: lookup table [dictSize, 4h]
+    private Embedding decoderEmbedding;
+    private QuantizedMatrix decoderToken;
+    private QuantizedMatrix decoderThought;
+    private Lstm decoder;
+    private QuantizedMatrix output;
+    private float[] outputBias;
+
+    private Seq2SeqQuantizedModel() {
+    }
+
+    /**
+     * Quantizes the inference half of net and writes it to file.
+     */
+    public static void export(ComputationGraph net, long vocabularyChecksum, File file) throws IOException {
+        Seq2SeqQuantizedModel model = quantize(net, vocabularyChecksum);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            model.write(out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Exports a model saved by Seq2SeqModel, with the vocabulary checksum stored in it.
+     */
+    public static void export(File modelFile, File file) throws IOException {
+        long checksum = ModelSerializer.listObjectsInFile(modelFile).contains(Seq2SeqModel.VOCABULARY_CHECKSUM)
+                ? ModelSerializer.<Long>getObjectFromFile(modelFile, Seq2SeqModel.VOCABULARY_CHECKSUM)
+                : 0L;
+        export(ModelSerializer.restoreComputationGraph(modelFile, false), checksum, file);
+    }
+
+    static Seq2SeqQuantizedModel quantize(ComputationGraph net, long vocabularyChecksum) {
+        Seq2SeqQuantizedModel model = new Seq2SeqQuantizedModel();
+        model.indexMode = net.getConfiguration().getVertices().containsKey("embeddingDecoder");
+        model.vocabularyChecksum = vocabularyChecksum;
+        model.encoderEmbedding = Embedding.of(net.getLayer("embeddingEncoder"));
+        model.encoder = Lstm.of(net.getLayer("encoder"));
+        model.thoughtSize = model.encoder.size;
+
+        Layer decoder = net.getLayer("decoder");
+        INDArray inputWeights = decoder.getParam(LSTMParamInitializer.INPUT_WEIGHT_KEY);
+        int tokenWidth = (int) inputWeights.rows() - model.thoughtSize;
+        INDArray tokenWeights = inputWeights.get(NDArrayIndex.interval(0, tokenWidth), NDArrayIndex.all());
+        INDArray thoughtWeights = inputWeights.get(NDArrayIndex.interval(tokenWidth, inputWeights.rows()), NDArrayIndex.all());
+        if (model.indexMode) {
+            model.decoderEmbedding = Embedding.of(net.getLayer("embeddingDecoder"));
+            model.decoderToken = QuantizedMatrix.quantize(tokenWeights.transpose());
+        } else {
+            model.decoderToken = QuantizedMatrix.quantize(tokenWeights);
+        }
+        model.decoderThought = QuantizedMatrix.quantize(thoughtWeights.transpose());
+        model.decoder = Lstm.of(decoder);
+        model.decoderSize = model.decoder.size;
+
+        Layer output = net.getLayer("output");
+        String activation = activationOf(output);
+        if (!activation.equals("softmax"))
+            throw new IllegalArgumentException("Unsupported output activation " + activation);
+        model.output = QuantizedMatrix.quantize(output.getParam(DefaultParamInitializer.WEIGHT_KEY).transpose());
+        model.outputBias = toFloats(output.getParam(DefaultParamInitializer.BIAS_KEY));
+        model.dictSize = model.output.getRows();
+        return model;
+    }
+
+    public static Seq2SeqQuantizedModel load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a quantized model");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported quantized model version " + version);
+            Seq2SeqQuantizedModel model = new Seq2SeqQuantizedModel();
+            model.indexMode = (in.readInt() & 1) != 0;
+            model.vocabularyChecksum = in.readLong();
+            model.dictSize = in.readInt();
+            model.thoughtSize = in.readInt();
+            model.decoderSize = in.readInt();
+            model.encoderEmbedding = Embedding.read(in);
+            model.encoder = Lstm.read(in);
+            if (model.indexMode) model.decoderEmbedding = Embedding.read(in);
+            model.decoderToken = QuantizedMatrix.read(in);
+            model.decoderThought = QuantizedMatrix.read(in);
+            model.decoder = Lstm.read(in);
+            model.output = QuantizedMatrix.read(in);
+            model.outputBias = readFloats(in);
+            return model;
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(this.indexMode ? 1 : 0);
+        out.writeLong(this.vocabularyChecksum);
+        out.writeInt(this.dictSize);
+        out.writeInt(this.thoughtSize);
+        out.writeInt(this.decoderSize);
+        this.encoderEmbedding.write(out);
+        this.encoder.write(out);
+        if (this.indexMode) this.decoderEmbedding.write(out);
+        this.decoderToken.write(out);
+        this.decoderThought.write(out);
+        this.decoder.write(out);
+        this.output.write(out);
+        writeFloats(out, this.outputBias);
+    }
+
+    /**
+     * @throws IllegalStateException if the model was exported with another vocabulary
+     */
+    public void checkVocabulary(Vocabulary vocabulary) {
+        if (vocabulary.size() != this.dictSize)
+            throw new IllegalStateException("Vocabulary of " + vocabulary.size()
+                    + " words for a model with " + this.dictSize + " outputs");
+        if (this.vocabularyChecksum != 0 && this.vocabularyChecksum != vocabulary.getChecksum())
+            throw new IllegalStateException("The quantized model was not trained with this vocabulary");
+    }
+
+    public int getDictSize() {
+        return this.dictSize;
+    }
+
+    /**
+     * Bytes of the quantized weights and float biases.
+     */
+    public long sizeInBytes() {
+        long bytes = this.encoderEmbedding.sizeInBytes() + this.encoder.sizeInBytes()
+                + this.decoderToken.sizeInBytes() + this.decoderThought.sizeInBytes()
+                + this.decoder.sizeInBytes() + this.output.sizeInBytes() + (long) this.outputBias.length * Float.BYTES;
+        if (this.indexMode) bytes += this.decoderEmbedding.sizeInBytes();
+        return bytes;
+    }
+
+    public List<int[]> decode(List<int[]> queries, Seq2SeqDecodeOptions options) {
+        if (options.getBeamWidth() != 1)
+            throw new IllegalArgumentException("The quantized model only decodes greedily");
+        List<int[]> replies = new ArrayList<>(queries.size());
+        for (int[] query : queries) {
+            replies.add(decode(query, options.getMaxLength()));
+        }
+        return replies;
+    }
+
+    /**
+     * @return the last encoder output of the query, [thoughtSize]
+     */
+    public float[] encode(int[] query) {
+        if (query.length == 0) query = new int[]{UNK};
+        float[] h = new float[this.thoughtSize];
+        float[] c = new float[this.thoughtSize];
+        float[] z = new float[4 * this.thoughtSize];
+        for (int token : query) {
+            Arrays.fill(z, 0f);
+            this.encoder.input.multiply(this.encoderEmbedding.lookup(token), z);
+            this.encoder.step(z, h, c);
+        }
+        return h;
+    }
+
+    public int[] decode(int[] query, int maxLength) {
+        float[] thought = encode(query);
+        float[] thoughtProjection = new float[4 * this.decoderSize];
+        this.decoderThought.multiply(thought, thoughtProjection);
+
+        float[] h = new float[this.decoderSize];
+        float[] c = new float[this.decoderSize];
+        float[] z = new float[4 * this.decoderSize];
+        float[] logits = new float[this.dictSize];
+        int[] reply = new int[maxLength];
+        int length = 0;
+        int token = GO;
+        for (int step = 0; step < maxLength; step++) {
+            System.arraycopy(thoughtProjection, 0, z, 0, z.length);
+            if (this.indexMode) this.decoderToken.multiply(this.decoderEmbedding.lookup(token), z);
+            else this.decoderToken.addRow(token, z);
+            this.decoder.step(z, h, c);
+
+            System.arraycopy(this.outputBias, 0, logits, 0, logits.length);
+            this.output.multiply(h, logits);
+            token = 0;
+            for (int i = 1; i < logits.length; i++) {
+                if (logits[i] > logits[token]) token = i;
+            }
+            if (token == EOS) break;
+            reply[length++] = token;
+        }
+        return Arrays.copyOf(reply, length);
+    }
+
+    private static String activationOf(Layer layer) {
+        return ((BaseLayer) layer.conf().getLayer()).getActivationFn().toString().toLowerCase();
+    }
+
+    // the element-wise activations the exported layers may use
+    private enum Function {
+        IDENTITY, TANH, SIGMOID, HARDSIGMOID, RELU;
+
+        private static Function of(String activation) {
+            try {
+                return valueOf(activation.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported activation " + activation);
+            }
+        }
+
+        private float apply(float x) {
+            switch (this) {
+                case TANH: return (float) Math.tanh(x);
+                case SIGMOID: return (float) (1.0 / (1.0 + Math.exp(-x)));
+                case HARDSIGMOID: return Math.min(1f, Math.max(0f, 0.2f * x + 0.5f));
+                case RELU: return Math.max(0f, x);
+                default: return x;
+            }
+        }
+    }
+
+    private static float[] toFloats(INDArray array) {
+        return array.castTo(DataType.FLOAT).dup('c').data().asFloat();
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        out.writeInt(values.length);
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    private static float[] readFloats(DataInputStream in) throws IOException {
+        float[] values = new float[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+
+    private static class Embedding {
+        private QuantizedMatrix table;
+        private float[] bias;
+        private Function activation;
+
+        private static Embedding of(Layer layer) {
+            Embedding embedding = new Embedding();
+            embedding.table = QuantizedMatrix.quantize(layer.getParam(DefaultParamInitializer.WEIGHT_KEY));
+            INDArray bias = layer.paramTable().get(DefaultParamInitializer.BIAS_KEY);
+            embedding.bias = bias != null ? toFloats(bias) : new float[embedding.table.getColumns()];
+            embedding.activation = Function.of(activationOf(layer));
+            return embedding;
+        }
+
+        private float[] lookup(int token) {
+            float[] vector = this.bias.clone();
+            this.table.addRow(token, vector);
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = this.activation.apply(vector[i]);
+            }
+            return vector;
+        }
+
+        private long sizeInBytes() {
+            return this.table.sizeInBytes() + (long) this.bias.length * Float.BYTES;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            this.table.write(out);
+            writeFloats(out, this.bias);
+            out.writeUTF(this.activation.name());
+        }
+
+        private static Embedding read(DataInputStream in) throws IOException {
+            Embedding embedding = new Embedding();
+            embedding.table = QuantizedMatrix.read(in);
+            embedding.bias = readFloats(in);
+            embedding.activation = Function.valueOf(in.readUTF());
+            return embedding;
+        }
+    }
+
+    /**
+     * DL4J LSTM without peepholes. The 4h pre-activations are ordered block input, forget gate,
+     * output gate, input modulation gate.
+     */
+    private static class Lstm {
+        private int size;
+        // [4h, nIn] and [4h, h]
+        private QuantizedMatrix input;
+        private QuantizedMatrix recurrent;
+        private float[] bias;
+        private Function activation;
+        private Function gateActivation;
+
+        private static Lstm of(Layer layer) {
+            LSTM conf = (LSTM) layer.conf().getLayer();
+            Lstm lstm = new Lstm();
+            lstm.size = (int) conf.getNOut();
+            lstm.input = QuantizedMatrix.quantize(layer.getParam(LSTMParamInitializer.INPUT_WEIGHT_KEY).transpose());
+            lstm.recurrent = QuantizedMatrix.quantize(layer.getParam(LSTMParamInitializer.RECURRENT_WEIGHT_KEY).transpose());
+            lstm.bias = toFloats(layer.getParam(LSTMParamInitializer.BIAS_KEY));
+            lstm.activation = Function.of(activationOf(layer));
+            lstm.gateActivation = Function.of(conf.getGateActivationFn().toString());
+            return lstm;
+        }
+
+        /**
+         * Advances h and c by one step, z holds the input projection and is overwritten.
+         */
+        private void step(float[] z, float[] h, float[] c) {
+            for (int i = 0; i < z.length; i++) {
+                z[i] += this.bias[i];
+            }
+            this.recurrent.multiply(h, z);
+            int n = this.size;
+            for (int i = 0; i < n; i++) {
+                float block = this.activation.apply(z[i]);
+                float forget = this.gateActivation.apply(z[n + i]);
+                float output = this.gateActivation.apply(z[2 * n + i]);
+                float inputModulation = this.gateActivation.apply(z[3 * n + i]);
+                c[i] = forget * c[i] + inputModulation * block;
+                h[i] = output * this.activation.apply(c[i]);
+            }
+        }
+
+        private long sizeInBytes() {
+            return this.input.sizeInBytes() + this.recurrent.sizeInBytes() + (long) this.bias.length * Float.BYTES;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(this.size);
+            this.input.write(out);
+            this.recurrent.write(out);
+            writeFloats(out, this.bias);
+            out.writeUTF(this.activation.name());
+            out.writeUTF(this.gateActivation.name());
+        }
+
+        private static Lstm read(DataInputStream in) throws IOException {
+            Lstm lstm = new Lstm();
+            lstm.size = in.readInt();
+            lstm.input = QuantizedMatrix.read(in);
+            lstm.recurrent = QuantizedMatrix.read(in);
+            lstm.bias = readFloats(in);
+            lstm.activation = Function.valueOf(in.readUTF());
+            lstm.gateActivation = Function.valueOf(in.readUTF());
+            return lstm;
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        File modelFile = new File(args.length > 0 ? args[0] : "resources/model.bin");
+        File file = new File(args.length > 1 ? args[1] : "resources/model-int8.bin");
+        export(modelFile, file);
+        System.out.println(String.format("Exported %s (%.1f MiB) to %s (%.1f MiB)",
+                modelFile, modelFile.length() / 1048576.0, file, file.length() / 1048576.0));
+    }
+}
@@ -0,0 +1,211 @@
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-level cache in front of Seq2SeqInference, keyed on token ids rather than text, so utterances
+ * that parse to the same ids share entries.
+ *
+ *   responses  reply text by token ids and decode options
+ *   thoughts   encoder thought vector by token ids, for the same query with other decode options
+ *
+ * Both levels are LRU maps bounded by entry count, entries optionally expire ttl after they were stored.
+ * Everything is tied to a model version: setModelVersion clears both levels when the version changes,
+ * and lookups and results of another version than the current one miss and are not stored.
+ */
+public class Seq2SeqResponseCache {
+    private Level<ResponseKey, String> responses;
+    private Level<Key, INDArray> thoughts;
+    private long ttlNanos;
+    private volatile String modelVersion;
+
+    /**
+     * @param responseEntries maximum number of cached replies, 0 turns the level off
+     * @param thoughtEntries maximum number of cached thought vectors, 0 turns the level off
+     * @param ttl lifetime of an entry, 0 for no expiry
+     */
+    public Seq2SeqResponseCache(int responseEntries, int thoughtEntries, long ttl, TimeUnit unit, String modelVersion) {
+        this.responses = new Level<>(responseEntries);
+        this.thoughts = new Level<>(thoughtEntries);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.modelVersion = modelVersion;
+    }
+
+    public String getModelVersion() {
+        return this.modelVersion;
+    }
+
+    /**
+     * Clears both levels if modelVersion differs from the current one.
+     */
+    public synchronized void setModelVersion(String modelVersion) {
+        if (modelVersion.equals(this.modelVersion)) return;
+        this.modelVersion = modelVersion;
+        this.responses.clear();
+        this.thoughts.clear();
+    }
+
+    /**
+     * @return the cached reply, null if there is none or modelVersion is not the current version
+     */
+    public String getResponse(String modelVersion, int[] ids, Seq2SeqDecodeOptions options) {
+        if (!modelVersion.equals(this.modelVersion)) return this.responses.miss();
+        return this.responses.get(new ResponseKey(ids, options), this.ttlNanos);
+    }
+
+    /**
+     * Stores reply unless it was computed under another model version than the current one.
+     */
+    public synchronized void putResponse(String modelVersion, int[] ids, Seq2SeqDecodeOptions options, String reply) {
+        if (modelVersion.equals(this.modelVersion)) this.responses.put(new ResponseKey(ids, options), reply);
+    }
+
+    public INDArray getThought(String modelVersion, int[] ids) {
+        if (!modelVersion.equals(this.modelVersion)) return this.thoughts.miss();
+        return this.thoughts.get(new Key(ids), this.ttlNanos);
+    }
+
+    /**
+     * Stores a thought vector, [1, thoughtSize], unless it was computed under another model version.
+     */
+    public synchronized void putThought(String modelVersion, int[] ids, INDArray thought) {
+        if (modelVersion.equals(this.modelVersion)) this.thoughts.put(new Key(ids), thought);
+    }
+
+    public double getResponseHitRatio() {
+        return this.responses.getHitRatio();
+    }
+
+    public double getThoughtHitRatio() {
+        return this.thoughts.getHitRatio();
+    }
+
+    /**
+     * Counters of both levels as "name value" lines, like the server stats.
+     */
+    public String toStats() {
+        return this.responses.toStats("response_cache") + this.thoughts.toStats("thought_cache");
+    }
+
+    // LRU map with expiry and counters
+    private static class Level<K, V> {
+        private int capacity;
+        private LinkedHashMap<K, Entry<V>> entries;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder expirations = new LongAdder();
+
+        private Level(int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    if (size() <= Level.this.capacity) return false;
+                    Level.this.evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        private synchronized V get(K key, long ttlNanos) {
+            Entry<V> entry = this.entries.get(key);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.stored > ttlNanos) {
+                this.entries.remove(key);
+                this.expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                this.misses.increment();
+                return null;
+            }
+            this.hits.increment();
+            return entry.value;
+        }
+
+        private V miss() {
+            this.misses.increment();
+            return null;
+        }
+
+        private synchronized void put(K key, V value) {
+            if (this.capacity > 0) this.entries.put(key, new Entry<>(value));
+        }
+
+        private synchronized void clear() {
+            this.entries.clear();
+        }
+
+        private synchronized int size() {
+            return this.entries.size();
+        }
+
+        private double getHitRatio() {
+            long hits = this.hits.sum();
+            long total = hits + this.misses.sum();
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        private String toStats(String name) {
+            return name + "_entries " + size() + "\n" +
+                    name + "_hits " + this.hits.sum() + "\n" +
+                    name + "_misses " + this.misses.sum() + "\n" +
+                    name + "_hit_ratio " + getHitRatio() + "\n" +
+                    name + "_evictions " + this.evictions.sum() + "\n" +
+                    name + "_expirations " + this.expirations.sum() + "\n";
+        }
+    }
+
+    private static class Entry<V> {
+        private V value;
+        private long stored;
+
+        private Entry(V value) {
+            this.value = value;
+            this.stored = System.nanoTime();
+        }
+    }
+
+    private static class Key {
+        private int[] ids;
+        private int hash;
+
+        private Key(int[] ids) {
+            this.ids = ids.clone();
+            this.hash = Arrays.hashCode(this.ids);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && o.getClass() == getClass() && Arrays.equals(this.ids, ((Key) o).ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private static class ResponseKey extends Key {
+        private Seq2SeqDecodeOptions options;
+
+        private ResponseKey(int[] ids, Seq2SeqDecodeOptions options) {
+            super(ids);
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return super.equals(o) && this.options.equals(((ResponseKey) o).options);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode() * 31 + this.options.hashCode();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback HTTP front end of a Seq2SeqMicroBatcher.
+ *
+ *   POST /reply  body: utterance (UTF-8)  ->  reply (UTF-8)
+ *        optional query parameters beamWidth, maxLength and lengthPenalty override the batcher's decode options,
+ *        up to the caps of setDecodeLimits
+ *   GET  /stats                           ->  queue depth, completed requests, batch size, latency
+ *                                             and the cache counters
+ */
+public class Seq2SeqServer implements AutoCloseable {
+    private Seq2SeqMicroBatcher batcher;
+    private HttpServer server;
+    private ExecutorService handlers;
+    // beam search holds batch * beamWidth hypotheses of maxLength tokens
+    private int maxBeamWidth = 10;
+    private int maxLength = 100;
+
+    public Seq2SeqServer(Seq2SeqMicroBatcher batcher, int port, int handlerThreads) throws IOException {
+        this.batcher = batcher;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // handlers block until their batch is decoded, there must be enough of them to fill a batch
+        this.handlers = Executors.newFixedThreadPool(handlerThreads);
+        this.server.setExecutor(this.handlers);
+        this.server.createContext("/reply", this::reply);
+        this.server.createContext("/stats", this::stats);
+    }
+
+    /**
+     * Caps of the beamWidth and maxLength query parameters, larger values are answered with 400.
+     */
+    public void setDecodeLimits(int maxBeamWidth, int maxLength) {
+        this.maxBeamWidth = maxBeamWidth;
+        this.maxLength = maxLength;
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void reply(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "POST only");
+            return;
+        }
+        String text = readBody(exchange.getRequestBody());
+        Seq2SeqDecodeOptions options;
+        try {
+            options = decodeOptions(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage());
+            return;
+        }
+        try {
+            respond(exchange, 200, this.batcher.submit(text, options).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Interrupted");
+        } catch (ExecutionException e) {
+            respond(exchange, 500, String.valueOf(e.getCause()));
+        }
+    }
+
+    // the batcher's options with the given query parameters replaced
+    private Seq2SeqDecodeOptions decodeOptions(String query) {
+        Seq2SeqDecodeOptions defaults = this.batcher.getOptions();
+        if (query == null || query.isEmpty()) return defaults;
+        int beamWidth = defaults.getBeamWidth();
+        int maxLength = defaults.getMaxLength();
+        double lengthPenalty = defaults.getLengthPenalty();
+        for (String parameter : query.split("&")) {
+            String[] pair = parameter.split("=", 2);
+            String value = pair.length > 1 ? pair[1] : "";
+            switch (pair[0]) {
+                case "beamWidth": beamWidth = Integer.parseInt(value); break;
+                case "maxLength": maxLength = Integer.parseInt(value); break;
+                case "lengthPenalty": lengthPenalty = Double.parseDouble(value); break;
+                default: throw new IllegalArgumentException("Unknown parameter " + pair[0]);
+            }
+        }
+        if (beamWidth > this.maxBeamWidth)
+            throw new IllegalArgumentException("beamWidth must be <= " + this.maxBeamWidth + ": " + beamWidth);
+        if (maxLength > this.maxLength)
+            throw new IllegalArgumentException("maxLength must be <= " + this.maxLength + ": " + maxLength);
+        return new Seq2SeqDecodeOptions(beamWidth, maxLength, lengthPenalty);
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        Seq2SeqResponseCache cache = this.batcher.getCache();
+        respond(exchange, 200,
+                "queue_depth " + this.batcher.getQueueDepth() + "\n" +
+                "completed " + this.batcher.getCompleted() + "\n" +
+                "batch_size_p50 " + this.batcher.getMedianBatchSize() + "\n" +
+                "latency_ms_p50 " + this.batcher.getLatencyMillis(50) + "\n" +
+                "latency_ms_p99 " + this.batcher.getLatencyMillis(99) + "\n" +
+                (cache != null ? cache.toStats() : ""));
+    }
+
+    private static String readBody(InputStream body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = body.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.server.stop(0);
+        this.handlers.shutdownNow();
+        this.batcher.close();
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        Seq2SeqPrecision precision = args.length > 1 ? Seq2SeqPrecision.valueOf(args[1]) : Seq2SeqPrecision.FP32;
+        int shortlist = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int cacheEntries = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+        File modelFile = new File("resources/model.bin");
+        File vocabularyFile = new File("resources/vocabulary.bin");
+        Seq2SeqInference inference = Seq2SeqInference.load(
+                modelFile,
+                vocabularyFile,
+                new PooledJapaneseTextParser(),
+                precision);
+        if (shortlist > 0) inference.setShortlist(shortlist);
+        Seq2SeqMicroBatcher batcher =
+                new Seq2SeqMicroBatcher(inference, Seq2SeqDecodeOptions.greedy(22), 32, 5);
+        if (cacheEntries > 0) {
+            // anything that changes replies for the same ids is part of the version
+            String modelVersion = modelFile.lastModified() + "-" + modelFile.length()
+                    + "-" + Vocabulary.load(vocabularyFile).getChecksum() + "-" + precision + "-" + shortlist;
+            batcher.setCache(new Seq2SeqResponseCache(cacheEntries, cacheEntries, 10, TimeUnit.MINUTES, modelVersion));
+        }
+        Seq2SeqServer server = new Seq2SeqServer(batcher, port, 64);
+        server.start();
+        System.out.println("Listening on 127.0.0.1:" + server.getPort());
+    }
+}
@@ -0,0 +1,412 @@
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.nativeblas.NativeOpsHolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hyperparameter sweep over Seq2SeqModel trials that run concurrently in one process.
+ *
+ * The corpus is loaded once and shared read-only, every trial iterates over it with its own iterator.
+ * Trials run on cores / threadsPerTrial threads, each holding memory permits for its estimated size,
+ * so the running trials stay within memoryMb. Successive halving: all trials train minSteps batches,
+ * the best 1 / eta by held-out loss go on for eta times as many, for rungs rounds. Trials are written
+ * to a new directory in workDir between rounds, so waiting trials do not hold their network.
+ *
+ * Every trial and round is a line of the results CSV, with wall-clock time, throughput and losses.
+ */
+public class Seq2SeqSweep {
+    static final String[] DIMENSIONS = {"learningRate", "embeddingSize", "hiddenSize", "batchSize", "batchesPerMacrobatch"};
+
+    private BaseTokenCorpus features;
+    private BaseTokenCorpus labels;
+    private int[] trainRows;
+    private int[] heldOutRows;
+    private int dictSize;
+    private int rowSize;
+    private File workDir;
+    // this run's trial files, trials only ever load the files of their own run
+    private File runDir;
+
+    private int concurrency;
+    private int memoryMb;
+    private Semaphore memory;
+    private long startNanos;
+
+    /**
+     * @param corpus iterator whose corpus and rows are shared by the trials, its held-out split is made here
+     */
+    public Seq2SeqSweep(Seq2SeqCustomDataSetIterator corpus, int dictSize, int rowSize, File workDir,
+                        int cores, int threadsPerTrial, int memoryMb) {
+        Seq2SeqCustomDataSetIterator heldOut = corpus.holdOut(0.02, 246);
+        this.features = corpus.getFeatures();
+        this.labels = corpus.getLabels();
+        this.trainRows = corpus.getRows();
+        this.heldOutRows = heldOut.getRows();
+        this.dictSize = dictSize;
+        this.rowSize = rowSize;
+        this.workDir = workDir;
+        this.concurrency = Math.max(1, cores / threadsPerTrial);
+        this.memoryMb = memoryMb;
+        this.memory = new Semaphore(memoryMb);
+        // native ops of every trial share these threads
+        NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(threadsPerTrial);
+    }
+
+    /**
+     * Every combination of the values of space.
+     */
+    public static List<Config> grid(Map<String, String[]> space) {
+        List<Config> configs = new ArrayList<>();
+        configs.add(new Config());
+        for (String dimension : DIMENSIONS) {
+            List<Config> expanded = new ArrayList<>();
+            for (Config config : configs) {
+                for (String value : space.get(dimension)) {
+                    expanded.add(config.with(dimension, Double.parseDouble(value)));
+                }
+            }
+            configs = expanded;
+        }
+        return configs;
+    }
+
+    /**
+     * trials configurations drawn from space: a value of each list, or log-uniformly from a "min:max" range.
+     */
+    public static List<Config> random(Map<String, String[]> space, int trials, long seed) {
+        Random random = new Random(seed);
+        List<Config> configs = new ArrayList<>(trials);
+        for (int i = 0; i < trials; i++) {
+            Config config = new Config();
+            for (String dimension : DIMENSIONS) {
+                String[] values = space.get(dimension);
+                String value = values[random.nextInt(values.length)];
+                int range = value.indexOf(':');
+                if (range < 0) {
+                    config = config.with(dimension, Double.parseDouble(value));
+                } else {
+                    double min = Math.log(Double.parseDouble(value.substring(0, range)));
+                    double max = Math.log(Double.parseDouble(value.substring(range + 1)));
+                    config = config.with(dimension, Math.exp(min + random.nextDouble() * (max - min)));
+                }
+            }
+            configs.add(config);
+        }
+        return configs;
+    }
+
+    /**
+     * Runs the successive halving schedule and writes the results CSV.
+     * @return the trials of the last round, best first. Only the best one keeps its network file,
+     *         the run directory is deleted if every trial failed
+     */
+    public List<Trial> run(List<Config> configs, int minSteps, int eta, int rungs, File resultsFile)
+            throws IOException, InterruptedException {
+        this.startNanos = System.nanoTime();
+        this.workDir.mkdirs();
+        this.runDir = Files.createTempDirectory(this.workDir.toPath(), "run-").toFile();
+        List<Trial> alive = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            alive.add(new Trial(i, configs.get(i)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(this.concurrency, new TrialThreadFactory());
+        System.out.println("Sweeping " + configs.size() + " trials, " + this.concurrency + " at a time");
+        try (PrintStream csv = new PrintStream(resultsFile)) {
+            csv.println("trial,rung,status," + String.join(",", DIMENSIONS)
+                    + ",steps,wallSeconds,trainSeconds,examplesPerSecond,trainLoss,heldOutLoss");
+            long steps = minSteps;
+            for (int rung = 0; rung < rungs && !alive.isEmpty(); rung++) {
+                final long target = steps;
+                List<Future<?>> futures = new ArrayList<>();
+                for (Trial trial : alive) {
+                    futures.add(executor.submit((Callable<Void>) () -> {
+                        trial.train(target);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // the trial recorded its failure
+                    }
+                }
+
+                alive.sort(Comparator.comparingDouble(Trial::getRank));
+                boolean last = rung == rungs - 1;
+                int keep = last ? alive.size() : Math.max(1, (int) Math.ceil((double) alive.size() / eta));
+                for (int i = 0; i < alive.size(); i++) {
+                    Trial trial = alive.get(i);
+                    String status = trial.failure != null ? "failed" : last ? "finished" : i < keep ? "promoted" : "stopped";
+                    csv.println(trial.id + "," + rung + "," + status + "," + trial.config.toCsv() + "," + trial.toCsv());
+                }
+                csv.flush();
+                for (Trial trial : alive.subList(keep, alive.size())) {
+                    trial.delete();
+                }
+                alive = new ArrayList<>(alive.subList(0, keep));
+                alive.removeIf(trial -> {
+                    if (trial.failure != null) trial.delete();
+                    return trial.failure != null;
+                });
+                steps *= eta;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Trial trial : alive.subList(Math.min(1, alive.size()), alive.size())) {
+            trial.delete();
+        }
+        if (alive.isEmpty()) this.runDir.delete();
+        return alive;
+    }
+
+    // rough bytes of a one-hot trial: parameters, gradients and RmsProp state, plus batch buffers and activations
+    private long estimateMb(Config config) {
+        long e = config.embeddingSize;
+        long h = config.hiddenSize;
+        long params = this.dictSize * e
+                + 4 * h * (e + h + 1)
+                + 4 * h * (this.dictSize + 2 * h + 1)
+                + (h + 1) * this.dictSize;
+        long cells = (long) config.batchSize * this.rowSize;
+        long activations = cells * (4L * this.dictSize + 24 * h + 2 * e);
+        return (params * 3 + activations) * Float.BYTES / (1 << 20) + 64;
+    }
+
+    public static class Config {
+        private double learningRate = 5e-2;
+        private int embeddingSize = 128 * 2;
+        private int hiddenSize = 512 * 2;
+        private int batchSize = 200;
+        private int batchesPerMacrobatch = 2;
+
+        private Config with(String dimension, double value) {
+            Config config = new Config();
+            config.learningRate = this.learningRate;
+            config.embeddingSize = this.embeddingSize;
+            config.hiddenSize = this.hiddenSize;
+            config.batchSize = this.batchSize;
+            config.batchesPerMacrobatch = this.batchesPerMacrobatch;
+            switch (dimension) {
+                case "learningRate": config.learningRate = value; break;
+                case "embeddingSize": config.embeddingSize = (int) Math.round(value); break;
+                case "hiddenSize": config.hiddenSize = (int) Math.round(value); break;
+                case "batchSize": config.batchSize = (int) Math.round(value); break;
+                case "batchesPerMacrobatch": config.batchesPerMacrobatch = (int) Math.round(value); break;
+                default: throw new IllegalArgumentException("Unknown dimension " + dimension);
+            }
+            return config;
+        }
+
+        private String toCsv() {
+            return this.learningRate + "," + this.embeddingSize + "," + this.hiddenSize + ","
+                    + this.batchSize + "," + this.batchesPerMacrobatch;
+        }
+
+        @Override
+        public String toString() {
+            return "learningRate=" + this.learningRate + " embeddingSize=" + this.embeddingSize
+                    + " hiddenSize=" + this.hiddenSize + " batchSize=" + this.batchSize
+                    + " batchesPerMacrobatch=" + this.batchesPerMacrobatch;
+        }
+    }
+
+    public class Trial {
+        private int id;
+        private Config config;
+        private File file;
+        private TrainingMetrics metrics = new TrainingMetrics();
+
+        // iterator position, the iterator itself is rebuilt for every round
+        private int epoch = 0;
+        private int batch = 0;
+        private long steps = 0;
+        private long trainNanos = 0;
+        private double trainLoss = Double.NaN;
+        private double heldOutLoss = Double.NaN;
+        private Throwable failure;
+        private boolean saved;
+
+        private Trial(int id, Config config) {
+            this.id = id;
+            this.config = config;
+            this.file = new File(runDir, String.format("trial-%03d.bin", id));
+        }
+
+        public Config getConfig() {
+            return this.config;
+        }
+
+        public double getHeldOutLoss() {
+            return this.heldOutLoss;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        // held-out loss, failed and diverged trials last
+        private double getRank() {
+            return this.failure != null || Double.isNaN(this.heldOutLoss) ? Double.POSITIVE_INFINITY : this.heldOutLoss;
+        }
+
+        private void train(long targetSteps) throws Exception {
+            int permits = (int) Math.min(estimateMb(this.config), memoryMb);
+            memory.acquire(permits);
+            try {
+                Seq2SeqCustomDataSetIterator iterator = iterator(trainRows);
+                iterator.setMetrics(this.metrics);
+                iterator.setEpoch(this.epoch);
+                iterator.setCurrentBatch(this.batch);
+                ComputationGraph net = network(iterator);
+
+                long start = System.nanoTime();
+                while (this.steps < targetSteps) {
+                    if (!iterator.hasNextMacrobatch()) iterator.reset();
+                    int before = iterator.getCurrentBatch();
+                    net.fit(iterator);
+                    iterator.nextMacroBatch();
+                    this.steps += iterator.getCurrentBatch() - before;
+                }
+                this.trainNanos += System.nanoTime() - start;
+                this.trainLoss = net.score();
+                this.epoch = iterator.getEpoch();
+                this.batch = iterator.getCurrentBatch();
+                this.heldOutLoss = Seq2SeqEvaluator.evaluate(net, iterator(heldOutRows), 0).getLoss();
+
+                File temp = new File(this.file.getPath() + ".tmp");
+                ModelSerializer.writeModel(net, temp, true);
+                Files.move(temp.toPath(), this.file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                this.saved = true;
+                System.out.println(String.format("Trial %d at %d steps: held-out loss %.4f (%s)",
+                        this.id, this.steps, this.heldOutLoss, this.config));
+            } catch (Exception | OutOfMemoryError e) {
+                this.failure = e;
+                System.out.println("Trial " + this.id + " failed: " + e);
+                throw e instanceof Exception ? (Exception) e : new IllegalStateException(e);
+            } finally {
+                memory.release(permits);
+            }
+        }
+
+        private Seq2SeqCustomDataSetIterator iterator(int[] rows) {
+            Seq2SeqCustomDataSetIterator iterator = new Seq2SeqCustomDataSetIterator(features, labels,
+                    this.config.batchSize, this.config.batchesPerMacrobatch, dictSize, rowSize);
+            iterator.setRows(rows);
+            iterator.setBucketing(4, 0, 246);
+            return iterator;
+        }
+
+        private ComputationGraph network(Seq2SeqCustomDataSetIterator iterator) throws IOException {
+            if (this.saved) return ModelSerializer.restoreComputationGraph(this.file, true);
+            Seq2SeqModel model = new Seq2SeqModel(iterator, dictSize, rowSize, this.file, this.file);
+            model.setSizes(this.config.embeddingSize, this.config.hiddenSize);
+            model.setLearningRate(this.config.learningRate);
+            model.setStatsFile(null);
+            model.initNetWork(false);
+            return model.getNet();
+        }
+
+        private void delete() {
+            this.file.delete();
+        }
+
+        private String toCsv() {
+            double trainSeconds = this.trainNanos / 1e9;
+            return this.steps + ","
+                    + String.format("%.1f", (System.nanoTime() - startNanos) / 1e9) + ","
+                    + String.format("%.1f", trainSeconds) + ","
+                    + String.format("%.1f", trainSeconds > 0 ? this.metrics.getExamples() / trainSeconds : 0.0) + ","
+                    + this.trainLoss + "," + this.heldOutLoss;
+        }
+    }
+
+    private static class TrialThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger threadId = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "seq2seq-trial-" + this.threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        Map<String, String[]> space = new LinkedHashMap<>();
+        space.put("learningRate", new String[]{"1e-2", "5e-2"});
+        space.put("embeddingSize", new String[]{"128", "256"});
+        space.put("hiddenSize", new String[]{"256", "512", "1024"});
+        space.put("batchSize", new String[]{"64", "200"});
+        space.put("batchesPerMacrobatch", new String[]{"2"});
+        boolean grid = true;
+        int trials = 16;
+        long seed = 246;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threadsPerTrial = 2;
+        int memoryMb = 8192;
+        int minSteps = 50;
+        int eta = 3;
+        int rungs = 3;
+        File out = new File("resources/sweep.csv");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--mode": grid = value.equals("grid"); break;
+                case "--trials": trials = Integer.parseInt(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--cores": cores = Integer.parseInt(value); break;
+                case "--threadsPerTrial": threadsPerTrial = Integer.parseInt(value); break;
+                case "--memoryMb": memoryMb = Integer.parseInt(value); break;
+                case "--minSteps": minSteps = Integer.parseInt(value); break;
+                case "--eta": eta = Integer.parseInt(value); break;
+                case "--rungs": rungs = Integer.parseInt(value); break;
+                case "--out": out = new File(value); break;
+                default:
+                    String dimension = args[i].substring(2);
+                    if (!space.containsKey(dimension)) throw new IllegalArgumentException("Unknown option " + args[i]);
+                    space.put(dimension, value.split(","));
+            }
+        }
+
+        int dictSize = 780;
+        int rowSize = 22;
+        Vocabulary vocabulary = Seq2SeqModel.openVocabulary();
+        if (vocabulary != null) dictSize = vocabulary.size();
+        Seq2SeqCustomDataSetIterator corpus = Seq2SeqModel.openCorpus(200, dictSize, rowSize);
+        Seq2SeqSweep sweep = new Seq2SeqSweep(corpus, dictSize, rowSize, new File("resources/sweep"),
+                cores, threadsPerTrial, memoryMb);
+        List<Config> configs = grid ? grid(space) : random(space, trials, seed);
+        List<Trial> best = sweep.run(configs, minSteps, eta, rungs, out);
+        if (best.isEmpty()) {
+            System.out.println("Every trial failed, see " + out);
+            return;
+        }
+        Trial winner = best.get(0);
+        Files.move(winner.getFile().toPath(), new File("resources/sweep/best-model.bin").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        winner.getFile().getParentFile().delete();
+        System.out.println(String.format("Best: held-out loss %.4f with %s, results in %s",
+                winner.getHeldOutLoss(), winner.getConfig(), out));
+    }
+}
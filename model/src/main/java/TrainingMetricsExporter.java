@@ -0,0 +1,64 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes TrainingMetrics as a JMX MBean, as Prometheus text on http://127.0.0.1:port/metrics
+ * and as a key=value log line every logSeconds seconds.
+ */
+public class TrainingMetricsExporter implements AutoCloseable {
+    private TrainingMetrics metrics;
+    private HttpServer server;
+    private ScheduledExecutorService logger;
+
+    public TrainingMetricsExporter(TrainingMetrics metrics, String name, int port, long logSeconds) throws IOException {
+        this.metrics = metrics;
+        try {
+            metrics.registerMBean(name);
+        } catch (JMException e) {
+            throw new IOException("Cannot register the metrics MBean", e);
+        }
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/metrics", this::export);
+        this.server.start();
+
+        this.logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "seq2seq-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (logSeconds > 0)
+            this.logger.scheduleAtFixedRate(() -> System.out.println(metrics.toLogLine()),
+                    logSeconds, logSeconds, TimeUnit.SECONDS);
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void export(HttpExchange exchange) throws IOException {
+        byte[] bytes = this.metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.logger.shutdownNow();
+        this.server.stop(0);
+        System.out.println(this.metrics.toLogLine());
+    }
+}